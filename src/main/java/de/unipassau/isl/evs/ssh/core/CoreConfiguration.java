@@ -27,14 +27,33 @@
 package de.unipassau.isl.evs.ssh.core;
 
 import de.ncoder.typedmap.Key;
+import de.unipassau.isl.evs.ssh.core.CoreConstants.DispatcherConstants;
+import de.unipassau.isl.evs.ssh.core.CoreConstants.ModuleStateCacheConstants;
+import de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants;
+import de.unipassau.isl.evs.ssh.core.CoreConstants.OfflineQueueConstants;
 import de.unipassau.isl.evs.ssh.core.container.AbstractComponent;
 import de.unipassau.isl.evs.ssh.core.container.Container;
 import de.unipassau.isl.evs.ssh.core.container.StartupException;
+import de.unipassau.isl.evs.ssh.core.messaging.ConflationKey;
+import de.unipassau.isl.evs.ssh.core.messaging.IncomingDispatcher;
+import de.unipassau.isl.evs.ssh.core.messaging.ModuleStateCache;
+import de.unipassau.isl.evs.ssh.core.messaging.RateLimiter;
+import de.unipassau.isl.evs.ssh.core.messaging.RoutingKey;
+import de.unipassau.isl.evs.ssh.core.network.NetworkSettings;
+import de.unipassau.isl.evs.ssh.core.network.ReconnectBackoff;
+import de.unipassau.isl.evs.ssh.core.network.handler.OutboundLaneHandler;
 import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.ConversionException;
 import org.apache.commons.configuration.HierarchicalINIConfiguration;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * The CoreConfiguration loads configuration details from an INI style configuration file.
@@ -105,6 +124,400 @@ public abstract class CoreConfiguration extends AbstractComponent {
         }
     }
 
+    /**
+     * Gets the maximum number of pending handler executions per priority in the {@link IncomingDispatcher}.
+     *
+     * @return the capacity set in the {@code [dispatcher]} section or {@link DispatcherConstants#DEFAULT_QUEUE_CAPACITY}
+     */
+    public int getDispatcherQueueCapacity() {
+        return getInt("dispatcher", "queue_capacity", DispatcherConstants.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Gets the policy the {@link IncomingDispatcher} applies once the queue of a priority is full.
+     *
+     * @return the policy set in the {@code [dispatcher]} section or {@link IncomingDispatcher.OverflowPolicy#DROP_OLDEST}
+     */
+    public IncomingDispatcher.OverflowPolicy getDispatcherOverflowPolicy() {
+        final String policy = getString("dispatcher", "overflow_policy");
+        if (policy != null) {
+            try {
+                return IncomingDispatcher.OverflowPolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        return IncomingDispatcher.OverflowPolicy.DROP_OLDEST;
+    }
+
+    /**
+     * Gets the priorities of String RoutingKeys that override the {@link RoutingKey#getPriority() default priority}.
+     * They are configured as lists named {@code priority_high}, {@code priority_normal} and {@code priority_low}
+     * in the {@code [dispatcher]} section.
+     *
+     * @return a map from String RoutingKey to its configured priority
+     */
+    public Map<String, RoutingKey.Priority> getDispatcherPriorities() {
+        final Map<String, RoutingKey.Priority> priorities = new HashMap<>();
+        for (RoutingKey.Priority priority : RoutingKey.Priority.values()) {
+            final String name = "priority_" + priority.name().toLowerCase(Locale.ROOT);
+            for (String key : getStringArray("dispatcher", name)) {
+                priorities.put(key.trim(), priority);
+            }
+        }
+        return priorities;
+    }
+
+    /**
+     * Gets the rate limit the {@link IncomingDispatcher} applies to messages of a single device to a single RoutingKey,
+     * configured as {@code rate_limit} (messages per second) and {@code rate_burst} in the {@code [dispatcher]} section.
+     *
+     * @return the configured limit, a limit with the {@link DispatcherConstants defaults} or {@code null} if the
+     * configured rate is 0 or less, meaning that messages are not limited
+     */
+    @Nullable
+    public RateLimiter.Limit getRateLimit() {
+        final double rate = getDouble("dispatcher", "rate_limit", DispatcherConstants.DEFAULT_RATE_LIMIT);
+        final int burst = getInt("dispatcher", "rate_burst", DispatcherConstants.DEFAULT_RATE_BURST);
+        return rate > 0 ? new RateLimiter.Limit(rate, Math.max(1, burst)) : null;
+    }
+
+    /**
+     * Gets the rate limits for individual String RoutingKeys, configured as list named {@code rate_limits} with
+     * entries of the form {@code routingKey:rate:burst} in the {@code [dispatcher]} section.
+     * Invalid entries are ignored.
+     *
+     * @return a map from String RoutingKey to its limit, which is {@code null} if the configured rate is 0 or less
+     */
+    public Map<String, RateLimiter.Limit> getRateLimits() {
+        final Map<String, RateLimiter.Limit> limits = new HashMap<>();
+        for (String entry : getStringArray("dispatcher", "rate_limits")) {
+            final int burstSep = entry.lastIndexOf(':');
+            final int rateSep = entry.lastIndexOf(':', burstSep - 1);
+            if (rateSep <= 0) {
+                continue;
+            }
+            try {
+                final double rate = Double.parseDouble(entry.substring(rateSep + 1, burstSep).trim());
+                final int burst = Integer.parseInt(entry.substring(burstSep + 1).trim());
+                limits.put(entry.substring(0, rateSep).trim(), rate > 0 ? new RateLimiter.Limit(rate, Math.max(1, burst)) : null);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return limits;
+    }
+
+    /**
+     * Gets what the {@link IncomingDispatcher} does with messages exceeding the rate limit.
+     *
+     * @return the action set as {@code rate_limit_action} in the {@code [dispatcher]} section or {@link RateLimiter.Action#DROP}
+     */
+    public RateLimiter.Action getRateLimitAction() {
+        final String action = getString("dispatcher", "rate_limit_action");
+        if (action != null) {
+            try {
+                return RateLimiter.Action.valueOf(action.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        return RateLimiter.Action.DROP;
+    }
+
+    /**
+     * Gets the maximum number of messages the Client queues while the Master is not connected.
+     *
+     * @return the capacity set in the {@code [offline_queue]} section or {@link OfflineQueueConstants#DEFAULT_CAPACITY}
+     */
+    public int getOfflineQueueCapacity() {
+        return getInt("offline_queue", "capacity", OfflineQueueConstants.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Gets the time in milliseconds after which a message queued while the Master is not connected is dropped.
+     *
+     * @return the time set as {@code ttl} in the {@code [offline_queue]} section or {@link OfflineQueueConstants#DEFAULT_TTL_MILLIS}
+     */
+    public long getOfflineQueueTTL() {
+        return getLong("offline_queue", "ttl", OfflineQueueConstants.DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Gets the times in milliseconds after which queued messages sent to individual String RoutingKeys are dropped,
+     * configured as list named {@code ttls} with entries of the form {@code routingKey:millis} in the
+     * {@code [offline_queue]} section. A time of 0 means that messages sent to the RoutingKey are never queued.
+     *
+     * @return a map from String RoutingKey to its time to live
+     */
+    public Map<String, Long> getOfflineQueueTTLs() {
+        final Map<String, Long> ttls = new HashMap<>();
+        for (String entry : getStringArray("offline_queue", "ttls")) {
+            final int sep = entry.lastIndexOf(':');
+            if (sep <= 0) {
+                continue;
+            }
+            try {
+                ttls.put(entry.substring(0, sep).trim(), Long.parseLong(entry.substring(sep + 1).trim()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return ttls;
+    }
+
+    /**
+     * Gets the upper bound of the random delay before the first reconnect to the Master, see {@link ReconnectBackoff}.
+     *
+     * @return the time in milliseconds set as {@code reconnect_base} in the {@code [network]} section or
+     * {@link NettyConstants#DEFAULT_RECONNECT_BASE_MILLIS}
+     */
+    public long getReconnectBaseMillis() {
+        return Math.max(1, getLong("network", "reconnect_base", NettyConstants.DEFAULT_RECONNECT_BASE_MILLIS));
+    }
+
+    /**
+     * Gets the maximum delay before reconnecting to the Master, see {@link ReconnectBackoff}.
+     *
+     * @return the time in milliseconds set as {@code reconnect_max} in the {@code [network]} section or
+     * {@link NettyConstants#DEFAULT_RECONNECT_MAX_MILLIS}
+     */
+    public long getReconnectMaxMillis() {
+        return Math.max(getReconnectBaseMillis(), getLong("network", "reconnect_max", NettyConstants.DEFAULT_RECONNECT_MAX_MILLIS));
+    }
+
+    /**
+     * Gets whether the Client connects to all known addresses of the Master at once.
+     *
+     * @return the value set as {@code connect_racing} in the {@code [network]} section or
+     * {@link NettyConstants#DEFAULT_CONNECT_RACING}
+     */
+    public boolean isConnectRacingEnabled() {
+        return getBoolean("network", "connect_racing", NettyConstants.DEFAULT_CONNECT_RACING);
+    }
+
+    /**
+     * Gets whether Netty's native epoll transport should be used if it is available on this platform.
+     *
+     * @return the value set as {@code native_transport} in the {@code [network]} section or
+     * {@link NettyConstants#DEFAULT_NATIVE_TRANSPORT}
+     */
+    public boolean isNativeTransportEnabled() {
+        return getBoolean("network", "native_transport", NettyConstants.DEFAULT_NATIVE_TRANSPORT);
+    }
+
+    /**
+     * Gets the delay between starting the connects to the individual addresses when racing connections.
+     *
+     * @return the time in milliseconds set as {@code connect_stagger} in the {@code [network]} section or
+     * {@link NettyConstants#DEFAULT_CONNECT_STAGGER_MILLIS}
+     */
+    public long getConnectStaggerMillis() {
+        return Math.max(0, getLong("network", "connect_stagger", NettyConstants.DEFAULT_CONNECT_STAGGER_MILLIS));
+    }
+
+    /**
+     * Gets whether an established connection is migrated to a newly found address of the Master
+     * without closing it first.
+     *
+     * @return the value set as {@code migrate} in the {@code [network]} section or
+     * {@link NettyConstants#DEFAULT_CONNECTION_MIGRATION}
+     */
+    public boolean isConnectionMigrationEnabled() {
+        return getBoolean("network", "migrate", NettyConstants.DEFAULT_CONNECTION_MIGRATION);
+    }
+
+    /**
+     * Gets the multicast group UDP discovery requests are sent to instead of the limited broadcast address.
+     * The Master must have joined the group.
+     *
+     * @return the group set as {@code discovery_multicast_group} in the {@code [network]} section or {@code null}
+     */
+    @Nullable
+    public String getDiscoveryMulticastGroup() {
+        final String group = getString("network", "discovery_multicast_group");
+        return group == null || group.trim().isEmpty() ? null : group.trim();
+    }
+
+    /**
+     * Gets the String RoutingKeys whose messages are superseded by newer messages for the same Module while they are
+     * still waiting to be sent, configured as list named {@code conflate} in the {@code [network]} section.
+     *
+     * @return the configured RoutingKeys or the {@link ConflationKey#DEFAULT_CONFLATED_KEYS defaults}
+     */
+    public Set<String> getConflatedKeys() {
+        final String[] keys = getStringArray("network", "conflate");
+        if (keys.length == 0) {
+            return ConflationKey.DEFAULT_CONFLATED_KEYS;
+        }
+        final Set<String> set = new HashSet<>();
+        for (String key : keys) {
+            set.add(key.trim());
+        }
+        return set;
+    }
+
+    /**
+     * Gets the path of the file the queued messages are written to, so that they survive a restart of the Client.
+     *
+     * @return the path set as {@code journal} in the {@code [offline_queue]} section or {@code null} if queued
+     * messages should only be held in memory
+     */
+    @Nullable
+    public String getOfflineQueueJournal() {
+        return getString("offline_queue", "journal");
+    }
+
+    /**
+     * Gets the time in microseconds a flush is delayed to consolidate it with further flushes.
+     *
+     * @return the time set as {@code flush_delay_micros} in the {@code [network]} section or
+     * {@link NettyConstants#DEFAULT_FLUSH_DELAY_MICROS}
+     */
+    public int getFlushDelayMicros() {
+        return getInt("network", "flush_delay_micros", NettyConstants.DEFAULT_FLUSH_DELAY_MICROS);
+    }
+
+    /**
+     * Gets the profile providing the defaults for the {@link #getNetworkSettings() network settings}.
+     *
+     * @return the profile set as {@code profile} in the {@code [network]} section, i.e. {@code default}, {@code lan}
+     * or {@code mobile}, or {@link NetworkSettings.Profile#DEFAULT}
+     */
+    public NetworkSettings.Profile getNetworkProfile() {
+        final String profile = getString("network", "profile");
+        if (profile != null) {
+            try {
+                return NetworkSettings.Profile.valueOf(profile.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        return NetworkSettings.Profile.DEFAULT;
+    }
+
+    /**
+     * Gets the socket and buffer options applied to all Channels. The defaults are taken from the
+     * {@link #getNetworkProfile() profile} and can be overridden by the following values in the {@code [network]}
+     * section:
+     * <ul>
+     * <li>{@code tcp_nodelay}: {@code true} to disable Nagle's algorithm</li>
+     * <li>{@code so_keepalive}: {@code true} to send TCP keep-alive probes on idle connections</li>
+     * <li>{@code connect_timeout_millis}: the time after which an attempt to connect is abandoned</li>
+     * <li>{@code so_sndbuf}, {@code so_rcvbuf}: the socket buffer sizes in bytes, {@code 0} for the OS's default</li>
+     * <li>{@code write_buffer_high_water_mark}, {@code write_buffer_low_water_mark}: the number of bytes waiting to be
+     * sent after which a connection is no longer writable and below which it becomes writable again</li>
+     * <li>{@code receive_allocation_min}, {@code receive_allocation_initial}, {@code receive_allocation_max}: the bounds
+     * of the adaptive size of the buffers reading from a connection</li>
+     * <li>{@code allocator}: {@code default}, {@code pooled} or {@code unpooled}</li>
+     * <li>{@code allocator_direct}: {@code true} to allocate direct instead of heap buffers</li>
+     * </ul>
+     *
+     * @return the network settings
+     */
+    public NetworkSettings getNetworkSettings() {
+        final NetworkSettings defaults = getNetworkProfile().getSettings();
+        final String tcpNoDelay = getString("network", "tcp_nodelay");
+        return new NetworkSettings(
+                tcpNoDelay != null ? Boolean.valueOf(tcpNoDelay.trim()) : defaults.getTcpNoDelay(),
+                getBoolean("network", "so_keepalive", defaults.isKeepAlive()),
+                getInt("network", "connect_timeout_millis", defaults.getConnectTimeoutMillis()),
+                getInt("network", "so_sndbuf", defaults.getSendBufferSize()),
+                getInt("network", "so_rcvbuf", defaults.getReceiveBufferSize()),
+                getInt("network", "write_buffer_high_water_mark", defaults.getWriteBufferHighWaterMark()),
+                getInt("network", "write_buffer_low_water_mark", defaults.getWriteBufferLowWaterMark()),
+                getInt("network", "receive_allocation_min", defaults.getMinReceiveAllocation()),
+                getInt("network", "receive_allocation_initial", defaults.getInitialReceiveAllocation()),
+                getInt("network", "receive_allocation_max", defaults.getMaxReceiveAllocation()),
+                getAllocator(defaults.getAllocator()),
+                getBoolean("network", "allocator_direct", defaults.isPreferDirect())
+        );
+    }
+
+    private NetworkSettings.Allocator getAllocator(NetworkSettings.Allocator defaultValue) {
+        final String allocator = getString("network", "allocator");
+        if (allocator != null) {
+            try {
+                return NetworkSettings.Allocator.valueOf(allocator.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Gets the outbound lanes for String RoutingKeys, configured as lists named {@code lane_control},
+     * {@code lane_normal} and {@code lane_bulk} in the {@code [network]} section, which override the
+     * {@link OutboundLaneHandler#DEFAULT_LANES defaults}.
+     *
+     * @return a map from String RoutingKey to its lane
+     */
+    public Map<String, OutboundLaneHandler.Lane> getOutboundLanes() {
+        final Map<String, OutboundLaneHandler.Lane> lanes = new HashMap<>(OutboundLaneHandler.DEFAULT_LANES);
+        for (OutboundLaneHandler.Lane lane : OutboundLaneHandler.Lane.values()) {
+            final String name = "lane_" + lane.name().toLowerCase(Locale.ROOT);
+            for (String key : getStringArray("network", name)) {
+                lanes.put(key.trim(), lane);
+            }
+        }
+        return lanes;
+    }
+
+    /**
+     * Gets the maximum age in milliseconds of a Module state cached by the {@link ModuleStateCache} that is still
+     * used to answer a request without asking the Slave.
+     *
+     * @return the time set as {@code freshness} in the {@code [cache]} section or {@link ModuleStateCacheConstants#DEFAULT_FRESHNESS_MILLIS}
+     */
+    public long getModuleStateFreshness() {
+        return getLong("cache", "freshness", ModuleStateCacheConstants.DEFAULT_FRESHNESS_MILLIS);
+    }
+
+    @Nullable
+    protected String getString(String section, String key) {
+        try {
+            return config.getSection(section).getString(key);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    @NotNull
+    protected String[] getStringArray(String section, String key) {
+        try {
+            return config.getSection(section).getStringArray(key);
+        } catch (NoSuchElementException e) {
+            return new String[0];
+        }
+    }
+
+    protected int getInt(String section, String key, int defaultValue) {
+        try {
+            return config.getSection(section).getInt(key, defaultValue);
+        } catch (NoSuchElementException | ConversionException e) {
+            return defaultValue;
+        }
+    }
+
+    protected long getLong(String section, String key, long defaultValue) {
+        try {
+            return config.getSection(section).getLong(key, defaultValue);
+        } catch (NoSuchElementException | ConversionException e) {
+            return defaultValue;
+        }
+    }
+
+    protected boolean getBoolean(String section, String key, boolean defaultValue) {
+        try {
+            return config.getSection(section).getBoolean(key, defaultValue);
+        } catch (NoSuchElementException | ConversionException e) {
+            return defaultValue;
+        }
+    }
+
+    protected double getDouble(String section, String key, double defaultValue) {
+        try {
+            return config.getSection(section).getDouble(key, defaultValue);
+        } catch (NoSuchElementException | ConversionException e) {
+            return defaultValue;
+        }
+    }
+
     /**
      * Loads platform specific defaults.
      */
@@ -77,18 +77,86 @@ public enum CoreConstants {
         public static final int DEFAULT_PUBLIC_PORT = 13130;
 
         /**
-         * The time it takes in seconds after the client starts idle when reader isn't active.
+         * The time in seconds nothing must have been read before a connection without pings is closed.
+         * Also the upper bound of the time waited for the answer to a ping.
          */
         public static final int READER_IDLE_TIME = 60;
         /**
-         * The time it takes in seconds after the client starts idle when writer isn't active.
+         * The time in seconds nothing must have been read before a ping is sent.
          */
         public static final int WRITER_IDLE_TIME = 30;
         /**
-         * The time it takes in seconds after the client starts idle when reader or writer isn't active.
-         * Set to infinite.
+         * The lower bound of the time waited for the answer to a ping, derived from the round trip time.
          */
-        public static final int ALL_IDLE_TIME = 0;
+        public static final long MIN_PING_TIMEOUT_MILLIS = 1000;
+        /**
+         * The time waited for the answer to a ping before the round trip time was measured.
+         */
+        public static final long INITIAL_PING_TIMEOUT_MILLIS = 3000;
+        /**
+         * The number of times an unanswered ping is repeated before the connection is closed.
+         */
+        public static final int PING_RETRIES = 2;
+        /**
+         * The time a session ticket issued by the Master is valid.
+         */
+        public static final long DEFAULT_SESSION_TICKET_LIFETIME_MILLIS = 60 * 60 * 1000;
+        /**
+         * The maximum time a Client keeps a session ticket, regardless of the lifetime indicated by the Master.
+         */
+        public static final long MAX_SESSION_TICKET_LIFETIME_MILLIS = 24 * 60 * 60 * 1000;
+        /**
+         * The maximum number of unexpired redeemed session tickets the Master remembers to prevent replays.
+         */
+        public static final int SESSION_TICKET_REPLAY_CACHE_SIZE = 4096;
+        /**
+         * The time in microseconds a flush is delayed to consolidate it with further flushes,
+         * 0 only consolidates flushes issued within the same EventLoop tick.
+         */
+        public static final int DEFAULT_FLUSH_DELAY_MICROS = 0;
+        /**
+         * The number of bytes waiting to be sent after which a channel is no longer writable.
+         */
+        public static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+        /**
+         * The number of bytes waiting to be sent below which an unwritable channel becomes writable again.
+         */
+        public static final int DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+        /**
+         * The time in milliseconds after which an attempt to open a TCP connection is abandoned.
+         */
+        public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5 * 1000;
+        /**
+         * The upper bound of the random delay before the first reconnect to the Master.
+         * It doubles with every further failed attempt.
+         */
+        public static final int DEFAULT_RECONNECT_BASE_MILLIS = 500;
+        /**
+         * The maximum upper bound of the random delay before reconnecting to the Master.
+         */
+        public static final int DEFAULT_RECONNECT_MAX_MILLIS = 60 * 1000;
+        /**
+         * Whether the Client connects to all known addresses of the Master at once and uses the first connection
+         * that completes the handshake.
+         */
+        public static final boolean DEFAULT_CONNECT_RACING = true;
+        /**
+         * Whether Netty's native epoll transport is used instead of NIO if it is available on this platform.
+         */
+        public static final boolean DEFAULT_NATIVE_TRANSPORT = true;
+        /**
+         * The delay between starting the connects to the individual addresses when racing connections.
+         */
+        public static final int DEFAULT_CONNECT_STAGGER_MILLIS = 100;
+        /**
+         * Whether the Client migrates an established connection to a newly found address of the Master
+         * by connecting to it before closing the old connection.
+         */
+        public static final boolean DEFAULT_CONNECTION_MIGRATION = true;
+        /**
+         * The time an old connection is kept open after migrating, so that replies to requests sent on it arrive.
+         */
+        public static final long MIGRATION_GRACE_MILLIS = 5 * 1000;
 
         /**
          * ResourceLeakDetector used for unreleased Netty Buffers
@@ -110,6 +178,50 @@ public enum CoreConstants {
          * UDP broadcast address
          */
         public static final String DISCOVERY_HOST = "255.255.255.255";
+        /**
+         * The number of discovery requests sent in a fast burst once discovery is started.
+         */
+        public static final int DISCOVERY_BURST_PROBES = 3;
+        /**
+         * The time between the discovery requests of the initial burst, it doubles with every further request.
+         */
+        public static final long DISCOVERY_BURST_INTERVAL_MILLIS = 250;
+        /**
+         * The maximum time between two discovery requests.
+         */
+        public static final long DISCOVERY_MAX_INTERVAL_MILLIS = 30 * 1000;
+        /**
+         * The time after which a cached address of the Master is no longer used.
+         */
+        public static final long DISCOVERY_CACHE_TTL_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+        /**
+         * The maximum size of a UDP discovery packet that is processed.
+         */
+        public static final int DISCOVERY_MAX_PACKET_SIZE = 2048;
+        /**
+         * The maximum length of a string in a UDP discovery packet.
+         */
+        public static final int DISCOVERY_MAX_STRING_LENGTH = 256;
+        /**
+         * The number of discovery responses per second processed from a single sender.
+         */
+        public static final int DISCOVERY_RESPONSE_RATE = 2;
+        /**
+         * The number of discovery responses processed at once from a single sender.
+         */
+        public static final int DISCOVERY_RESPONSE_BURST = 4;
+        /**
+         * The number of senders whose rate is tracked, the state of all senders is dropped if it is exceeded.
+         */
+        public static final int DISCOVERY_MAX_TRACKED_SENDERS = 1024;
+        /**
+         * The time all responses of a sender are dropped after it sent a response with an invalid signature.
+         */
+        public static final long DISCOVERY_BLOCK_MILLIS = 30 * 1000;
+        /**
+         * The number of discovery responses that may wait for their signature to be verified.
+         */
+        public static final int DISCOVERY_VERIFY_QUEUE_CAPACITY = 16;
         /**
          * Identifier for an UDP discovery request
          */
@@ -137,6 +249,91 @@ public enum CoreConstants {
         public static final AttributeKey<Boolean> ATTR_LOCAL_CONNECTION = AttributeKey.valueOf("LocalConnection");
     }
 
+    /**
+     * Constants for the {@link de.unipassau.isl.evs.ssh.core.messaging.IncomingDispatcher}.
+     * The defaults can be overridden in the {@code [dispatcher]} section of the {@link CoreConfiguration}.
+     */
+    public enum DispatcherConstants {
+        ;
+        /**
+         * The maximum number of handler executions waiting per priority before the overflow policy is applied.
+         */
+        public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+        /**
+         * The maximum number of handler executions run in a row before the EventLoop is given back to other tasks.
+         */
+        public static final int DRAIN_BATCH_SIZE = 64;
+        /**
+         * The number of messages per second a single device may send to a single RoutingKey on average.
+         */
+        public static final double DEFAULT_RATE_LIMIT = 50;
+        /**
+         * The number of messages a single device may send to a single RoutingKey in a burst exceeding the rate limit.
+         */
+        public static final int DEFAULT_RATE_BURST = 100;
+        /**
+         * The number of rate limit buckets after which idle buckets are purged.
+         */
+        public static final int RATE_LIMIT_MAX_BUCKETS = 4096;
+        /**
+         * The maximum number of messages {@link de.unipassau.isl.evs.ssh.core.messaging.OutgoingRouter.SendMode#DELAY
+         * delayed} for a single device, further messages fail immediately.
+         */
+        public static final int MAX_DELAYED_MESSAGES = 1024;
+        /**
+         * The maximum number of entries in a single {@link de.unipassau.isl.evs.ssh.core.messaging.payload.BatchPayload}.
+         */
+        public static final int MAX_BATCH_SIZE = 64;
+        /**
+         * The time after which entries of a batch that were not answered by their handler are answered with an error.
+         */
+        public static final long BATCH_TIMEOUT_MILLIS = 10 * 1000;
+    }
+
+    /**
+     * Constants for the queue of the {@link de.unipassau.isl.evs.ssh.core.network.ClientOutgoingRouter} that holds
+     * messages while the Master is not connected.
+     * The defaults can be overridden in the {@code [offline_queue]} section of the {@link CoreConfiguration}.
+     */
+    public enum OfflineQueueConstants {
+        ;
+        /**
+         * The maximum number of queued messages, the oldest message is dropped if the queue is full.
+         */
+        public static final int DEFAULT_CAPACITY = 256;
+        /**
+         * The time after which a queued message is dropped if it could not be sent.
+         */
+        public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+    }
+
+    /**
+     * Constants for the subscriptions managed by the {@link de.unipassau.isl.evs.ssh.core.messaging.SubscriptionManager}.
+     */
+    public enum SubscriptionConstants {
+        ;
+        /**
+         * The lease requested by subscribers. Subscriptions are renewed after half of the lease elapsed.
+         */
+        public static final long DEFAULT_LEASE_MILLIS = 60 * 1000;
+        /**
+         * The maximum lease granted to a subscriber, longer requested leases are shortened.
+         */
+        public static final long MAX_LEASE_MILLIS = 5 * 60 * 1000;
+    }
+
+    /**
+     * Constants for the {@link de.unipassau.isl.evs.ssh.core.messaging.ModuleStateCache}.
+     * The defaults can be overridden in the {@code [cache]} section of the {@link CoreConfiguration}.
+     */
+    public enum ModuleStateCacheConstants {
+        ;
+        /**
+         * The maximum age of a cached Module state that is still used to answer a request.
+         */
+        public static final int DEFAULT_FRESHNESS_MILLIS = 5 * 1000;
+    }
+
     /**
      * This class contains constants for ModuleTypes
      */
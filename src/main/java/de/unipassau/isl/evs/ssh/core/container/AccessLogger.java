@@ -123,7 +123,7 @@ public class AccessLogger extends AbstractComponent {
 
                         // filter the calls through the library that led to logAccess being called,
                         // so only the relevant parts of the stack are logged
-                        final boolean isMessage = methodName.startsWith("sendMessage") || methodName.startsWith("sendReply");
+                        final boolean isMessage = methodName.startsWith("send") || methodName.equals("sent") || methodName.equals("request");
                         final boolean isMessageClass = className.endsWith("AbstractMessageHandler") || className.endsWith("OutgoingRouter");
                         final boolean isPermission = methodName.startsWith("hasPermission");
                         final boolean isPermissionClass = className.endsWith("AbstractMasterHandler") || className.endsWith("PermissionController");
@@ -0,0 +1,208 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.handler;
+
+import com.google.common.base.Throwables;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.unipassau.isl.evs.ssh.core.messaging.Message;
+import de.unipassau.isl.evs.ssh.core.messaging.RoutingKey;
+import de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Base class for MessageHandlers that can handle any number of RoutingKeys by annotating one method per RoutingKey
+ * with {@link OnMessage}, e.g.
+ * <pre>
+ * public class LightHandler extends AnnotatedMessageHandler {
+ *     &#64;OnMessage("/master/light/get")
+ *     void handleGet(Message.AddressedMessage message, LightPayload payload) { ... }
+ *
+ *     &#64;OnMessage("/master/light/set")
+ *     void handleSet(Message.AddressedMessage message, LightPayload payload) { ... }
+ * }
+ * </pre>
+ * The annotated methods are looked up once per Class and bound to {@link MethodHandle}s, so handling a message only
+ * requires a single table lookup and no reflection.
+ * If a constant in {@link RoutingKeys} has the same String RoutingKey, the route is registered with its
+ * {@link RoutingKey#getPriority() priority}.
+ *
+ * @see SimpleMessageHandler
+ */
+public abstract class AnnotatedMessageHandler extends AbstractMessageHandler {
+    /**
+     * The bound routes for every subclass, as the MethodHandles take the handler as first argument they can be shared.
+     */
+    private static final Map<Class<?>, Map<RoutingKey, MethodHandle>> ROUTES_BY_CLASS = new ConcurrentHashMap<>();
+    /**
+     * The priorities of the constants in {@link RoutingKeys}, indexed by their String RoutingKey.
+     */
+    private static final Map<String, RoutingKey.Priority> KNOWN_PRIORITIES = findKnownPriorities();
+    private static final MethodType ROUTE_TYPE = MethodType.methodType(
+            void.class, AnnotatedMessageHandler.class, Message.AddressedMessage.class, Object.class);
+
+    /**
+     * Not initialized in the declaration, as {@link #getRoutingKeys()} is already called from the super constructor.
+     */
+    private Map<RoutingKey, MethodHandle> routes;
+
+    @NotNull
+    private Map<RoutingKey, MethodHandle> getRoutes() {
+        if (routes == null) {
+            Map<RoutingKey, MethodHandle> classRoutes = ROUTES_BY_CLASS.get(getClass());
+            if (classRoutes == null) {
+                classRoutes = bindRoutes(getClass());
+                ROUTES_BY_CLASS.put(getClass(), classRoutes);
+            }
+            routes = classRoutes;
+        }
+        return routes;
+    }
+
+    @Override
+    public RoutingKey[] getRoutingKeys() {
+        final Map<RoutingKey, MethodHandle> routes = getRoutes();
+        return routes.keySet().toArray(new RoutingKey[routes.size()]);
+    }
+
+    @Override
+    public void handle(Message.AddressedMessage message) {
+        final MethodHandle route = getRoutes().get(RoutingKey.forMessage(message));
+        if (route == null) {
+            invalidMessage(message);
+            return;
+        }
+        final Object payload = message.getPayloadChecked(Object.class);
+        try {
+            route.invokeExact(this, message, payload);
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        }
+    }
+
+    /**
+     * Find all methods annotated with {@link OnMessage} in the given class and its superclasses and bind them to
+     * MethodHandles of the type {@code (AnnotatedMessageHandler, Message.AddressedMessage, Object)void}.
+     *
+     * @throws IllegalArgumentException if an annotated method has an unsupported signature or
+     *                                  multiple methods are annotated for the same RoutingKey
+     */
+    @NotNull
+    private static Map<RoutingKey, MethodHandle> bindRoutes(Class<?> clazz) {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final Map<RoutingKey, MethodHandle> routes = new HashMap<>();
+        final Set<String> boundSignatures = new HashSet<>();
+        for (Class<?> c = clazz; c != AnnotatedMessageHandler.class && c != null; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                final OnMessage annotation = method.getAnnotation(OnMessage.class);
+                if (annotation == null) {
+                    continue;
+                }
+                if (Modifier.isStatic(method.getModifiers())) {
+                    throw new IllegalArgumentException("@OnMessage method " + method + " must not be static");
+                }
+                // subclasses come first, so a method overridden by an already bound method must not be bound again
+                final String signature = method.getName() + Arrays.toString(method.getParameterTypes());
+                if (!Modifier.isPrivate(method.getModifiers()) && !boundSignatures.add(signature)) {
+                    continue;
+                }
+                final Class<?>[] params = method.getParameterTypes();
+                final Class<?> payloadClass;
+                MethodHandle handle;
+                try {
+                    method.setAccessible(true);
+                    handle = lookup.unreflect(method);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalArgumentException("Can't access @OnMessage method " + method, e);
+                }
+                if (params.length == 2 && params[0] == Message.AddressedMessage.class) {
+                    payloadClass = params[1];
+                } else if (params.length == 1 && params[0] == Message.AddressedMessage.class) {
+                    payloadClass = Void.class;
+                    handle = MethodHandles.dropArguments(handle, 2, Object.class);
+                } else if (params.length == 1) {
+                    payloadClass = params[0];
+                    handle = MethodHandles.dropArguments(handle, 1, Message.AddressedMessage.class);
+                } else {
+                    throw new IllegalArgumentException("@OnMessage method " + method + " must take the parameters " +
+                            "(Message.AddressedMessage, Payload), (Payload) or (Message.AddressedMessage)");
+                }
+                if (payloadClass.isPrimitive()) {
+                    throw new IllegalArgumentException("@OnMessage method " + method + " has a primitive payload type");
+                }
+                RoutingKey.Priority priority = KNOWN_PRIORITIES.get(annotation.value());
+                if (priority == null) {
+                    priority = RoutingKey.Priority.NORMAL;
+                }
+                final RoutingKey<?> routingKey = new RoutingKey<>(annotation.value(), payloadClass, priority);
+                if (routes.containsKey(routingKey)) {
+                    throw new IllegalArgumentException("Multiple @OnMessage methods in " + clazz + " for " + routingKey);
+                }
+                routes.put(routingKey, handle.asType(ROUTE_TYPE));
+            }
+        }
+        return Collections.unmodifiableMap(routes);
+    }
+
+    /**
+     * Collect the priorities of all RoutingKey constants in {@link RoutingKeys}. If multiple constants share the same
+     * String RoutingKey, the highest priority is used.
+     */
+    @NotNull
+    private static Map<String, RoutingKey.Priority> findKnownPriorities() {
+        final Map<String, RoutingKey.Priority> priorities = new HashMap<>();
+        for (Field field : RoutingKeys.class.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) || field.getType() != RoutingKey.class) {
+                continue;
+            }
+            final RoutingKey<?> routingKey;
+            try {
+                routingKey = (RoutingKey<?>) field.get(null);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Can't access RoutingKey constant " + field, e);
+            }
+            final RoutingKey.Priority known = priorities.get(routingKey.getKey());
+            if (known == null || routingKey.getPriority().compareTo(known) < 0) {
+                priorities.put(routingKey.getKey(), routingKey.getPriority());
+            }
+        }
+        return Collections.unmodifiableMap(priorities);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.handler;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of an {@link AnnotatedMessageHandler} as handler for all messages sent to the given String RoutingKey.
+ * The Class part of the RoutingKey is inferred from the type of the payload parameter of the annotated method.
+ * Supported signatures are
+ * <ul>
+ * <li>{@code (Message.AddressedMessage message, P payload)}</li>
+ * <li>{@code (P payload)}</li>
+ * <li>{@code (Message.AddressedMessage message)} for messages without payload, i.e. {@code RoutingKey<Void>}</li>
+ * </ul>
+ *
+ * @see de.unipassau.isl.evs.ssh.core.messaging.RoutingKey
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OnMessage {
+    /**
+     * @return the String part of the RoutingKey, e.g. {@code "/master/light/get"}
+     */
+    String value();
+}
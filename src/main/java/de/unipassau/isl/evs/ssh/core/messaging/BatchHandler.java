@@ -0,0 +1,200 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.messaging;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import de.ncoder.typedmap.Key;
+import de.unipassau.isl.evs.ssh.core.CoreConstants.DispatcherConstants;
+import de.unipassau.isl.evs.ssh.core.container.Component;
+import de.unipassau.isl.evs.ssh.core.handler.AbstractMessageHandler;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.BatchPayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.ErrorPayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.MessagePayload;
+import de.unipassau.isl.evs.ssh.core.schedule.ExecutionServiceComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.GLOBAL_BATCH;
+
+/**
+ * Handles messages sent to {@link RoutingKeys#GLOBAL_BATCH} by dispatching each entry of the {@link BatchPayload}
+ * as individual message from the original sender through the {@link IncomingDispatcher}, so that the normal handlers
+ * (including their permission checks) are used. The replies the handlers send using
+ * {@link OutgoingRouter#sendReply(Message.AddressedMessage, Message)} are collected instead of being sent and
+ * returned as a single BatchPayload once all entries are answered or {@link DispatcherConstants#BATCH_TIMEOUT_MILLIS}
+ * elapsed. Entries that could not be handled, were rate limited or timed out are answered with an {@link ErrorPayload}.
+ */
+public class BatchHandler extends AbstractMessageHandler implements Component {
+    public static final Key<BatchHandler> KEY = new Key<>(BatchHandler.class);
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    /**
+     * The entries of all batches that are still waiting for their reply, by the message dispatched for them.
+     * AddressedMessages don't override equals, so this is an identity mapping.
+     */
+    private final Map<Message.AddressedMessage, Member> members = new ConcurrentHashMap<>();
+
+    @Override
+    public RoutingKey[] getRoutingKeys() {
+        return new RoutingKey[]{GLOBAL_BATCH};
+    }
+
+    @Override
+    public void handle(Message.AddressedMessage message) {
+        if (!GLOBAL_BATCH.matches(message)) {
+            invalidMessage(message);
+            return;
+        }
+        final List<BatchPayload.Entry> entries = GLOBAL_BATCH.getPayload(message).getEntries();
+        if (entries.size() > DispatcherConstants.MAX_BATCH_SIZE) {
+            sendReply(message, new Message(new ErrorPayload("Batch with " + entries.size() + " entries exceeds the " +
+                    "maximum of " + DispatcherConstants.MAX_BATCH_SIZE + " entries")));
+            return;
+        }
+
+        final IncomingDispatcher dispatcher = requireComponent(IncomingDispatcher.KEY);
+        final PendingBatch batch = new PendingBatch(message, entries.size());
+        batch.timeout = requireComponent(ExecutionServiceComponent.KEY).schedule(new Runnable() {
+            @Override
+            public void run() {
+                batch.timeout();
+            }
+        }, DispatcherConstants.BATCH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < entries.size(); i++) {
+            final BatchPayload.Entry entry = entries.get(i);
+            if (GLOBAL_BATCH.getKey().equals(entry.getRoutingKey())) {
+                batch.complete(i, new ErrorPayload("Nested batches are not supported"));
+                continue;
+            }
+            final Message.AddressedMessage member = new Message(entry.getPayload())
+                    .setDestination(message.getFromID(), message.getToID(), entry.getRoutingKey());
+            if (!dispatcher.hasHandler(member)) {
+                batch.complete(i, new ErrorPayload("No handler for " + entry.getRoutingKey()));
+            } else if (!dispatcher.getRateLimiter().tryAcquire(message.getFromID(), entry.getRoutingKey())) {
+                batch.complete(i, new ErrorPayload("Message rejected, rate limit exceeded"));
+            } else {
+                members.put(member, new Member(batch, i));
+                if (!dispatcher.dispatch(member)) {
+                    members.remove(member);
+                    batch.complete(i, new ErrorPayload("No handler for " + entry.getRoutingKey()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the {@link OutgoingRouter} for every reply, collects the replies to entries of a batch.
+     *
+     * @return {@code true} if the original message was an entry of a batch and the reply must not be sent
+     */
+    boolean collectReply(Message.AddressedMessage original, Message reply) {
+        final Member member = members.remove(original);
+        if (member == null) {
+            return false;
+        }
+        member.batch.complete(member.index, reply.getPayloadChecked(MessagePayload.class));
+        return true;
+    }
+
+    private static class Member {
+        private final PendingBatch batch;
+        private final int index;
+
+        private Member(PendingBatch batch, int index) {
+            this.batch = batch;
+            this.index = index;
+        }
+    }
+
+    private class PendingBatch {
+        private final Message.AddressedMessage message;
+        private final MessagePayload[] results;
+        private final boolean[] completed;
+        private int remaining;
+        private ScheduledFuture<?> timeout;
+
+        private PendingBatch(Message.AddressedMessage message, int size) {
+            this.message = message;
+            this.results = new MessagePayload[size];
+            this.completed = new boolean[size];
+            this.remaining = size;
+            if (size == 0) {
+                finish();
+            }
+        }
+
+        private synchronized void complete(int index, MessagePayload result) {
+            if (remaining <= 0 || completed[index]) {
+                return;
+            }
+            results[index] = result;
+            completed[index] = true;
+            if (--remaining == 0) {
+                finish();
+            }
+        }
+
+        private synchronized void timeout() {
+            if (remaining <= 0) {
+                return;
+            }
+            for (Iterator<Member> it = members.values().iterator(); it.hasNext(); ) {
+                if (it.next().batch == this) {
+                    it.remove();
+                }
+            }
+            logger.warn(remaining + " entries of batch " + message + " were not answered in time");
+            for (int i = 0; i < results.length; i++) {
+                if (!completed[i]) {
+                    results[i] = new ErrorPayload("No reply within " + DispatcherConstants.BATCH_TIMEOUT_MILLIS + "ms");
+                    completed[i] = true;
+                }
+            }
+            remaining = 0;
+            finish();
+        }
+
+        private void finish() {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            final List<BatchPayload.Entry> entries = new ArrayList<>(results.length);
+            final List<BatchPayload.Entry> requests = GLOBAL_BATCH.getPayload(message).getEntries();
+            for (int i = 0; i < results.length; i++) {
+                entries.add(new BatchPayload.Entry(RoutingKey.getReplyKey(requests.get(i).getRoutingKey()), results[i]));
+            }
+            sendReply(message, new Message(new BatchPayload(entries)));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.messaging;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import de.unipassau.isl.evs.ssh.core.messaging.payload.ModulePayloads;
+import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
+
+/**
+ * Identifies messages that supersede each other, e.g. two status updates for the same Module sent to the same device,
+ * so that a pending older message can be replaced by a newer one instead of sending both.
+ * Two messages have the same ConflationKey if they are sent to the same device using the same String RoutingKey
+ * and their payloads refer to the same {@link ModulePayloads#getModuleName(Object) Module}, if any.
+ */
+public final class ConflationKey {
+    /**
+     * The RoutingKeys used for pushing the state of a Module, whose messages are superseded by newer ones.
+     */
+    public static final Set<String> DEFAULT_CONFLATED_KEYS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            RoutingKeys.APP_LIGHT_UPDATE.getKey(),
+            RoutingKeys.APP_DOOR_STATUS_UPDATE.getKey(),
+            RoutingKeys.MASTER_DOOR_STATUS_UPDATE.getKey(),
+            RoutingKeys.MASTER_PUSH_WEATHER_INFO.getKey(),
+            RoutingKeys.MASTER_SYSTEM_HEALTH_CHECK.getKey()
+    )));
+
+    private final DeviceID toID;
+    private final String routingKey;
+    private final String moduleName;
+
+    private ConflationKey(DeviceID toID, String routingKey, String moduleName) {
+        this.toID = toID;
+        this.routingKey = routingKey;
+        this.moduleName = moduleName;
+    }
+
+    public static ConflationKey forMessage(Message.AddressedMessage message) {
+        return new ConflationKey(message.getToID(), message.getRoutingKey(),
+                ModulePayloads.getModuleName(message.getPayloadChecked(Object.class)));
+    }
+
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final ConflationKey that = (ConflationKey) o;
+        return Objects.equals(toID, that.toID) && Objects.equals(routingKey, that.routingKey)
+                && Objects.equals(moduleName, that.moduleName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(toID, routingKey, moduleName);
+    }
+
+    @Override
+    public String toString() {
+        return routingKey + (moduleName != null ? "[" + moduleName + "]" : "") + " to " + toID;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.messaging;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.unipassau.isl.evs.ssh.core.messaging.IncomingDispatcher.OverflowPolicy;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Bounded queues, one per {@link RoutingKey.Priority}, for the handler executions submitted by the {@link IncomingDispatcher}.
+ * Elements are always taken from the queue with the highest priority first.
+ * If the queue for a priority is full, the {@link OverflowPolicy} decides which element is shed.
+ *
+ * @param <E> the type of the queued elements
+ */
+class DispatchQueue<E> {
+    private final ArrayDeque<E>[] queues;
+    private final AtomicLong[] shedCounts;
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    @SuppressWarnings("unchecked")
+    DispatchQueue(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity " + capacity + " <= 0");
+        }
+        final int count = RoutingKey.Priority.values().length;
+        this.queues = new ArrayDeque[count];
+        this.shedCounts = new AtomicLong[count];
+        for (int i = 0; i < count; i++) {
+            queues[i] = new ArrayDeque<>();
+            shedCounts[i] = new AtomicLong();
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Add the element to the queue of the given priority, applying the {@link OverflowPolicy} if that queue is full.
+     *
+     * @return the element that was shed to keep the queue within its bounds, which is the given element itself
+     * if it was rejected, or {@code null} if nothing was shed
+     */
+    @Nullable
+    synchronized E offer(E element, RoutingKey.Priority priority) {
+        final ArrayDeque<E> queue = queues[priority.ordinal()];
+        if (queue.size() < capacity) {
+            queue.addLast(element);
+            return null;
+        }
+        shedCounts[priority.ordinal()].incrementAndGet();
+        if (policy == OverflowPolicy.DROP_OLDEST) {
+            final E oldest = queue.pollFirst();
+            queue.addLast(element);
+            return oldest;
+        } else {
+            return element;
+        }
+    }
+
+    /**
+     * @return the next element with the highest priority or {@code null} if all queues are empty
+     */
+    @Nullable
+    synchronized E poll() {
+        for (ArrayDeque<E> queue : queues) {
+            final E element = queue.pollFirst();
+            if (element != null) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    synchronized boolean isEmpty() {
+        for (ArrayDeque<E> queue : queues) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized int size(RoutingKey.Priority priority) {
+        return queues[priority.ordinal()].size();
+    }
+
+    long getShedCount(RoutingKey.Priority priority) {
+        return shedCounts[priority.ordinal()].get();
+    }
+
+    OverflowPolicy getPolicy() {
+        return policy;
+    }
+}
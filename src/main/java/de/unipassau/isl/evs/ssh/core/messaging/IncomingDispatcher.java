@@ -29,15 +29,27 @@ package de.unipassau.isl.evs.ssh.core.messaging;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
 
 import java.security.SignatureException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.ncoder.typedmap.Key;
+import de.unipassau.isl.evs.ssh.core.CoreConfiguration;
+import de.unipassau.isl.evs.ssh.core.CoreConstants.DispatcherConstants;
 import de.unipassau.isl.evs.ssh.core.container.Component;
 import de.unipassau.isl.evs.ssh.core.container.Container;
 import de.unipassau.isl.evs.ssh.core.handler.MessageHandler;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.ErrorPayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.ModulePayloads;
 import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
 import de.unipassau.isl.evs.ssh.core.schedule.ExecutionServiceComponent;
 import io.netty.channel.ChannelHandler;
@@ -52,6 +64,9 @@ import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.ATTR_PE
 
 /**
  * Distributes incoming messages to their target MessageHandlers.
+ * Handler executions are queued in bounded queues per {@link RoutingKey.Priority}, so that a flood of low priority
+ * messages can't delay the handling of high priority ones. See {@link OverflowPolicy} for what happens if a queue is full.
+ * Messages received from other devices are subject to the {@link RateLimiter} per device and RoutingKey.
  *
  * @author Niko Fink
  */
@@ -60,8 +75,26 @@ public class IncomingDispatcher extends ChannelHandlerAdapter implements Compone
     public static final Key<IncomingDispatcher> KEY = new Key<>(IncomingDispatcher.class);
 
     private final SetMultimap<RoutingKey, MessageHandler> mappings = HashMultimap.create();
+    /**
+     * The handlers that are only interested in messages concerning certain Modules,
+     * indexed by RoutingKey and {@link ModulePayloads#getModuleName(Object) module name}.
+     */
+    private final Map<RoutingKey, SetMultimap<String, MessageHandler>> moduleMappings = new HashMap<>();
+    /**
+     * The priorities of all registered String RoutingKeys, see {@link #getPriority(String)}
+     */
+    private final Map<String, RoutingKey.Priority> priorities = new ConcurrentHashMap<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicLong expiredCount = new AtomicLong();
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private Container container;
+    private volatile DispatchQueue<DispatchTask> queue;
+    private volatile RateLimiter rateLimiter;
+    /**
+     * The priorities overridden in the {@link CoreConfiguration}, loaded in {@link #init(Container)} so that they
+     * already apply to the first dispatched message.
+     */
+    private volatile Map<String, RoutingKey.Priority> configuredPriorities = Collections.emptyMap();
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object in) throws Exception {
@@ -77,36 +110,197 @@ public class IncomingDispatcher extends ChannelHandlerAdapter implements Compone
                 throw new SignatureException("Connected to Device with ID " + peerID + " but received message " +
                         "seemingly from " + msg.getFromID());
             }
+            final RateLimiter rateLimiter = getRateLimiter();
+            // messages without handler are not dispatched anyway, so don't create buckets for them
+            if (hasHandler(msg) && !rateLimiter.tryAcquire(peerID, msg.getRoutingKey())) {
+                logger.warn("Rate limit " + rateLimiter.getLimit(msg.getRoutingKey()) + " exceeded by " + peerID
+                        + ", dropping message " + msg);
+                if (rateLimiter.getAction() == RateLimiter.Action.REJECT) {
+                    sendRejectReply(msg, "Message rejected, rate limit exceeded");
+                }
+                return;
+            }
             if (dispatch(msg)) return; //if no Handler can handle the Message, forward it in the pipeline
         }
         super.channelRead(ctx, in);
     }
 
+    /**
+     * Forget the rate limit state of a device once its connection is closed.
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        final DeviceID peerID = ctx.attr(ATTR_PEER_ID).get();
+        if (peerID != null) {
+            getRateLimiter().reset(peerID);
+        }
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * @return {@code true} if a handler is registered for the RoutingKey of the message, for all messages or for the
+     * messages of some Modules
+     */
+    public boolean hasHandler(Message.AddressedMessage msg) {
+        final RoutingKey routingKey = RoutingKey.forMessage(msg);
+        return mappings.containsKey(routingKey) || moduleMappings.containsKey(routingKey);
+    }
+
     /**
      * Dispatches an AddressedMessage to its target handler using an EventExecutor.
+     * The handler executions are queued with the {@link #getPriority(String) priority} of the message's RoutingKey.
      *
      * @param msg AddressedMessage to dispatch.
      * @return {@code true} if the Message was forwarded to at least one MessageHandler.
      */
     public boolean dispatch(final Message.AddressedMessage msg) {
-        Set<MessageHandler> handlers = mappings.get(RoutingKey.forMessage(msg));
+        final RoutingKey routingKey = RoutingKey.forMessage(msg);
+        Set<MessageHandler> handlers = mappings.get(routingKey);
+        final SetMultimap<String, MessageHandler> moduleHandlers = moduleMappings.get(routingKey);
+        if (moduleHandlers != null) {
+            final String moduleName = ModulePayloads.getModuleName(msg.getPayloadChecked(Object.class));
+            if (moduleName != null && moduleHandlers.containsKey(moduleName)) {
+                handlers = Sets.union(handlers, moduleHandlers.get(moduleName));
+            }
+        }
         final EventLoop executor = getEventLoop();
-        logger.debug("DISPATCH " + msg + " to " + handlers + " using " + executor);
+        final RoutingKey.Priority priority = getPriority(msg.getRoutingKey());
+        logger.debug("DISPATCH " + msg + " to " + handlers + " with priority " + priority + " using " + executor);
+        final DispatchQueue<DispatchTask> queue = getQueue();
+        boolean rejected = false;
         for (final MessageHandler handler : handlers) {
-            executor.submit(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        handler.handle(msg);
-                    } catch (Exception e) {
-                        logger.debug("Handler " + handler + " crashed while handling message " + msg, e);
-                    }
+            final DispatchTask shed = queue.offer(new DispatchTask(msg, handler), priority);
+            if (shed != null) {
+                logger.warn("Dispatcher queue for priority " + priority + " is full (" + queue.getPolicy() + "), " +
+                        "not executing handler " + shed.handler + " for message " + shed.msg);
+                if (queue.getPolicy() == OverflowPolicy.REJECT && !rejected) {
+                    rejected = true;
+                    sendRejectReply(msg, "Message rejected, the receiver is overloaded");
                 }
-            });
+            }
+        }
+        if (!handlers.isEmpty()) {
+            scheduleDrain(executor);
         }
         return !handlers.isEmpty();
     }
 
+    private void scheduleDrain(EventLoop executor) {
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    /**
+     * Executes at most {@link DispatcherConstants#DRAIN_BATCH_SIZE} queued handlers, highest priority first,
+     * and reschedules itself if further handlers are pending.
+     */
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            final DispatchQueue<DispatchTask> queue = getQueue();
+            for (int i = 0; i < DispatcherConstants.DRAIN_BATCH_SIZE; i++) {
+                final DispatchTask task = queue.poll();
+                if (task == null) {
+                    break;
+                }
+                task.run();
+            }
+            drainScheduled.set(false);
+            if (!queue.isEmpty()) {
+                scheduleDrain(getEventLoop());
+            }
+        }
+    };
+
+    /**
+     * Answer a rejected message with an {@link ErrorPayload} containing the reason, unless it is a reply itself.
+     */
+    private void sendRejectReply(Message.AddressedMessage msg, String reason) {
+        if (RoutingKey.forMessage(msg).isReply()) {
+            return;
+        }
+        final Container container = getContainer();
+        final OutgoingRouter router = container != null ? container.get(OutgoingRouter.KEY) : null;
+        if (router != null) {
+            router.sendReply(msg, new Message(new ErrorPayload(reason)));
+        }
+    }
+
+    /**
+     * @return the priority configured for the String RoutingKey in the {@link CoreConfiguration} or otherwise
+     * the {@link RoutingKey#getPriority() priority} of the RoutingKey the handlers were registered with.
+     */
+    public RoutingKey.Priority getPriority(String routingKey) {
+        RoutingKey.Priority priority = configuredPriorities.get(routingKey);
+        if (priority == null) {
+            priority = priorities.get(routingKey);
+        }
+        return priority != null ? priority : RoutingKey.Priority.NORMAL;
+    }
+
+    /**
+     * @return the number of handler executions for messages with the given priority that were shed because the queue was full.
+     */
+    public long getShedCount(RoutingKey.Priority priority) {
+        return getQueue().getShedCount(priority);
+    }
+
+    /**
+     * @return the number of handler executions that were skipped because the {@link Message#HEADER_TIMEOUT timeout}
+     * of their message expired while they were waiting.
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return the number of handler executions for messages with the given priority that are currently waiting.
+     */
+    public int getQueuedCount(RoutingKey.Priority priority) {
+        return getQueue().size(priority);
+    }
+
+    /**
+     * @return the RateLimiter applied to all messages received from other devices, created from the
+     * {@link CoreConfiguration} on first use. Also provides the counters of messages exceeding the limit.
+     */
+    @NotNull
+    public RateLimiter getRateLimiter() {
+        if (rateLimiter == null) {
+            synchronized (this) {
+                if (rateLimiter == null) {
+                    final CoreConfiguration config = container != null ? container.get(CoreConfiguration.KEY) : null;
+                    if (config != null) {
+                        rateLimiter = new RateLimiter(config.getRateLimit(), config.getRateLimits(), config.getRateLimitAction());
+                    } else {
+                        rateLimiter = new RateLimiter(
+                                new RateLimiter.Limit(DispatcherConstants.DEFAULT_RATE_LIMIT, DispatcherConstants.DEFAULT_RATE_BURST),
+                                Collections.<String, RateLimiter.Limit>emptyMap(), RateLimiter.Action.DROP);
+                    }
+                }
+            }
+        }
+        return rateLimiter;
+    }
+
+    @NotNull
+    private DispatchQueue<DispatchTask> getQueue() {
+        if (queue == null) {
+            synchronized (this) {
+                if (queue == null) {
+                    final CoreConfiguration config = container != null ? container.get(CoreConfiguration.KEY) : null;
+                    if (config != null) {
+                        queue = new DispatchQueue<>(config.getDispatcherQueueCapacity(), config.getDispatcherOverflowPolicy());
+                    } else {
+                        queue = new DispatchQueue<>(DispatcherConstants.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST);
+                    }
+                }
+            }
+        }
+        return queue;
+    }
+
     private EventLoop eventLoop;
 
     @NotNull
@@ -124,6 +318,10 @@ public class IncomingDispatcher extends ChannelHandlerAdapter implements Compone
     @Override
     public void init(Container container) {
         this.container = container;
+        final CoreConfiguration config = container.get(CoreConfiguration.KEY);
+        if (config != null) {
+            configuredPriorities = new HashMap<>(config.getDispatcherPriorities());
+        }
     }
 
     @Override
@@ -137,6 +335,7 @@ public class IncomingDispatcher extends ChannelHandlerAdapter implements Compone
     public void registerHandler(MessageHandler handler, RoutingKey... routingKeys) {
         for (RoutingKey routingKey : routingKeys) {
             mappings.put(routingKey, handler);
+            priorities.put(routingKey.getKey(), routingKey.getPriority());
             handler.handlerAdded(this, routingKey);
         }
     }
@@ -146,9 +345,62 @@ public class IncomingDispatcher extends ChannelHandlerAdapter implements Compone
      */
     public void unregisterHandler(MessageHandler handler, RoutingKey... routingKeys) {
         for (RoutingKey routingKey : routingKeys) {
-            handler.handlerRemoved(routingKey);
             mappings.remove(routingKey, handler);
+            if (!isRegistered(handler, routingKey)) {
+                handler.handlerRemoved(routingKey);
+            }
+        }
+    }
+
+    /**
+     * Register the handler to only receive the messages sent to the given routingKey whose payload refers to one of
+     * the given Modules, so that the handler isn't even scheduled for updates of other Modules.
+     *
+     * @param moduleNames the names of the Modules the handler is interested in
+     * @see ModulePayloads#getModuleName(Object)
+     */
+    public void registerHandler(MessageHandler handler, RoutingKey routingKey, Collection<String> moduleNames) {
+        SetMultimap<String, MessageHandler> moduleHandlers = moduleMappings.get(routingKey);
+        if (moduleHandlers == null) {
+            moduleHandlers = HashMultimap.create();
+            moduleMappings.put(routingKey, moduleHandlers);
         }
+        for (String moduleName : moduleNames) {
+            moduleHandlers.put(moduleName, handler);
+        }
+        priorities.put(routingKey.getKey(), routingKey.getPriority());
+        handler.handlerAdded(this, routingKey);
+    }
+
+    /**
+     * Unregister the handler so that it no longer receives messages sent to the routingKey concerning the given Modules.
+     */
+    public void unregisterHandler(MessageHandler handler, RoutingKey routingKey, Collection<String> moduleNames) {
+        final SetMultimap<String, MessageHandler> moduleHandlers = moduleMappings.get(routingKey);
+        if (moduleHandlers == null) {
+            return;
+        }
+        for (String moduleName : moduleNames) {
+            moduleHandlers.remove(moduleName, handler);
+        }
+        if (moduleHandlers.isEmpty()) {
+            moduleMappings.remove(routingKey);
+        }
+        if (!isRegistered(handler, routingKey)) {
+            handler.handlerRemoved(routingKey);
+        }
+    }
+
+    /**
+     * @return {@code true} if the handler is still registered for the routingKey, either for all messages or for
+     * the messages concerning some Modules
+     */
+    private boolean isRegistered(MessageHandler handler, RoutingKey routingKey) {
+        if (mappings.containsEntry(routingKey, handler)) {
+            return true;
+        }
+        final SetMultimap<String, MessageHandler> moduleHandlers = moduleMappings.get(routingKey);
+        return moduleHandlers != null && moduleHandlers.containsValue(handler);
     }
 
     public Container getContainer() {
@@ -166,7 +418,55 @@ public class IncomingDispatcher extends ChannelHandlerAdapter implements Compone
                 bob.append('\t').append(key).append(" => ").append(mappings.get(key)).append('\n');
             }
         }
+        for (Map.Entry<RoutingKey, SetMultimap<String, MessageHandler>> entry : moduleMappings.entrySet()) {
+            bob.append('\t').append(entry.getKey()).append(" => ").append(entry.getValue()).append('\n');
+        }
         bob.append("]");
         return bob.toString();
     }
+
+    /**
+     * What the IncomingDispatcher does with a message if the queue for its priority is already full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Shed the oldest queued handler execution to make room for the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * Shed the new handler execution.
+         */
+        DROP_NEWEST,
+        /**
+         * Shed the new handler execution and answer the sender with an {@link ErrorPayload}.
+         */
+        REJECT
+    }
+
+    /**
+     * A queued execution of a single MessageHandler for a single message.
+     */
+    private class DispatchTask implements Runnable {
+        private final Message.AddressedMessage msg;
+        private final MessageHandler handler;
+
+        private DispatchTask(Message.AddressedMessage msg, MessageHandler handler) {
+            this.msg = msg;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            if (msg.isExpired()) {
+                expiredCount.incrementAndGet();
+                logger.debug("Timeout of message " + msg + " expired, not executing handler " + handler);
+                return;
+            }
+            try {
+                handler.handle(msg);
+            } catch (Exception e) {
+                logger.debug("Handler " + handler + " crashed while handling message " + msg, e);
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -26,6 +26,9 @@
 
 package de.unipassau.isl.evs.ssh.core.messaging;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
@@ -36,6 +39,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import de.ncoder.typedmap.Key;
@@ -56,6 +60,13 @@ import org.jetbrains.annotations.Nullable;
 public class Message implements Serializable {
     public static final Key<Long> HEADER_TIMESTAMP = new Key<>(Long.class, "timestamp");
     public static final Key<Integer> HEADER_REFERENCES_ID = new Key<>(Integer.class, "referencesID");
+    /**
+     * The time in milliseconds after which the sender is no longer interested in the message, see {@link #setTimeout(long)}.
+     * The time is measured locally on every device, so that the expiry doesn't depend on synchronized clocks:
+     * the sender counts from the call to setTimeout and transmits the remaining time, which the receiver counts
+     * from the reception of the message.
+     */
+    public static final Key<Long> HEADER_TIMEOUT = new Key<>(Long.class, "timeout");
     /**
      * @deprecated replaced by {@link RoutingKey#getReplyKey(String)}
      */
@@ -66,19 +77,24 @@ public class Message implements Serializable {
     private final TypedMap<Object> headers;
     @Nullable
     private MessagePayload payload;
+    /**
+     * The {@link System#nanoTime()} at which the {@link #HEADER_TIMEOUT timeout} expires on this device.
+     */
+    private transient long expiresAtNanos;
 
     public Message() {
         this(null);
     }
 
     public Message(@Nullable MessagePayload payload) {
-        this(new TypedMap<>(), payload);
+        this(new TypedMap<>(), payload, 0);
     }
 
     @SuppressWarnings("unchecked")
-    private Message(@NotNull TypedMap headers, @Nullable MessagePayload payload) {
+    private Message(@NotNull TypedMap headers, @Nullable MessagePayload payload, long expiresAtNanos) {
         this.headers = headers;
         this.payload = payload;
+        this.expiresAtNanos = expiresAtNanos;
     }
 
     /**
@@ -139,6 +155,42 @@ public class Message implements Serializable {
         return headers.remove(key);
     }
 
+    /**
+     * Set the {@link #HEADER_TIMEOUT timeout} of this Message to the given time from now.
+     * Expired messages are dropped by the {@link OutgoingRouter} before they are written and by the
+     * {@link IncomingDispatcher} before their handlers are executed.
+     *
+     * @param timeoutMillis the time in milliseconds after which the sender is no longer interested in the message
+     */
+    public Message setTimeout(long timeoutMillis) {
+        putHeader(HEADER_TIMEOUT, timeoutMillis);
+        expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        return this;
+    }
+
+    /**
+     * @return {@code true} if this Message has a {@link #HEADER_TIMEOUT timeout} that already passed
+     */
+    public boolean isExpired() {
+        return getHeader(HEADER_TIMEOUT) != null && System.nanoTime() - expiresAtNanos > 0;
+    }
+
+    /**
+     * Transmit the time remaining until the {@link #HEADER_TIMEOUT timeout} expires.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeLong(TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime()));
+    }
+
+    /**
+     * Count the remaining time of the {@link #HEADER_TIMEOUT timeout} from the reception of the Message.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(in.readLong());
+    }
+
     @NotNull
     public TypedMap<Object> getHeaders() {
         return headers;
@@ -257,6 +309,15 @@ public class Message implements Serializable {
         return new AddressedMessage(this, fromID, toID, routingKey);
     }
 
+    /**
+     * Like {@link #setDestination(DeviceID, DeviceID, String)}, but the AddressedMessage contains the given payload
+     * instead of the payload of this Message, e.g. a {@link de.unipassau.isl.evs.ssh.core.messaging.payload.PreSerializedPayload}.
+     */
+    AddressedMessage setDestination(DeviceID fromID, DeviceID toID, String routingKey, @Nullable MessagePayload payload) {
+        this.putHeader(HEADER_TIMESTAMP, System.currentTimeMillis());
+        return new AddressedMessage(new TypedMap<>(headers), payload, expiresAtNanos, fromID, toID, routingKey);
+    }
+
     /**
      * An AddressedMessage is an immutable Message with additional information about sender and receiver.
      * Additionally, the String part of the RoutingKey is transferred. The Class part will be inferred based on the used payload.
@@ -272,11 +333,12 @@ public class Message implements Serializable {
         private static final AtomicInteger sequenceCounter = new AtomicInteger();
 
         private AddressedMessage(Message from, DeviceID fromID, DeviceID toID, String routingKey) {
-            this(new TypedMap<>(from.headers), from.payload, fromID, toID, routingKey);
+            this(new TypedMap<>(from.headers), from.payload, from.expiresAtNanos, fromID, toID, routingKey);
         }
 
-        private AddressedMessage(TypedMap headers, @Nullable MessagePayload payload, DeviceID fromID, DeviceID toID, String routingKey) {
-            super(headers.unmodifiableView(), payload);
+        private AddressedMessage(TypedMap headers, @Nullable MessagePayload payload, long expiresAtNanos,
+                                 DeviceID fromID, DeviceID toID, String routingKey) {
+            super(headers.unmodifiableView(), payload, expiresAtNanos);
             if (fromID == null) {
                 throw new NullPointerException("fromID");
             }
@@ -308,6 +370,14 @@ public class Message implements Serializable {
             throw new UnsupportedOperationException("destination already set");
         }
 
+        /**
+         * @throws UnsupportedOperationException this class is immutable
+         */
+        @Override
+        AddressedMessage setDestination(DeviceID fromID, DeviceID toID, String routingKey, @Nullable MessagePayload payload) {
+            throw new UnsupportedOperationException("destination already set");
+        }
+
         public DeviceID getFromID() {
             return fromID;
         }
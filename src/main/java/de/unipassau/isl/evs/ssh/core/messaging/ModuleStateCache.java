@@ -0,0 +1,238 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.messaging;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.ncoder.typedmap.Key;
+import de.unipassau.isl.evs.ssh.core.CoreConfiguration;
+import de.unipassau.isl.evs.ssh.core.CoreConstants.ModuleStateCacheConstants;
+import de.unipassau.isl.evs.ssh.core.container.Component;
+import de.unipassau.isl.evs.ssh.core.container.Container;
+import de.unipassau.isl.evs.ssh.core.handler.AbstractMessageHandler;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.ClimatePayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.DoorStatusPayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.LightPayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.MessagePayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.ModifyModulePayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.ModulePayloads;
+import org.jetbrains.annotations.Nullable;
+
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.APP_DOOR_STATUS_UPDATE;
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.APP_LIGHT_UPDATE;
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.MASTER_DOOR_STATUS_UPDATE;
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.MASTER_MODULE_REMOVE;
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.MASTER_PUSH_WEATHER_INFO;
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.MASTER_REQUEST_WEATHER_INFO_REPLY;
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.SLAVE_LIGHT_GET_REPLY;
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.SLAVE_LIGHT_SET_REPLY;
+
+/**
+ * Caches the last known {@link LightPayload}, {@link DoorStatusPayload} and {@link ClimatePayload} of every Module,
+ * fed by the update messages and the replies of the Slaves.
+ * Handlers for e.g. {@link RoutingKeys#MASTER_LIGHT_GET} call {@link #answerFromCache(Message.AddressedMessage, RoutingKey)}
+ * first and only ask the Slave if the cached state is missing or older than {@link CoreConfiguration#getModuleStateFreshness()}.
+ * <p>
+ * The cache is only useful on the Master, where those handlers live, so it is not registered by any of the core
+ * Components. The Master has to register it in its Container before the handlers that use it, otherwise they
+ * always fall back to asking the Slave.
+ */
+public class ModuleStateCache extends AbstractMessageHandler implements Component {
+    public static final Key<ModuleStateCache> KEY = new Key<>(ModuleStateCache.class);
+
+    private final Map<Class<?>, ConcurrentMap<String, CachedState>> states;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleMisses = new AtomicLong();
+    private long freshnessMillis = ModuleStateCacheConstants.DEFAULT_FRESHNESS_MILLIS;
+
+    public ModuleStateCache() {
+        final Map<Class<?>, ConcurrentMap<String, CachedState>> states = new HashMap<>();
+        states.put(LightPayload.class, new ConcurrentHashMap<String, CachedState>());
+        states.put(DoorStatusPayload.class, new ConcurrentHashMap<String, CachedState>());
+        states.put(ClimatePayload.class, new ConcurrentHashMap<String, CachedState>());
+        this.states = Collections.unmodifiableMap(states);
+    }
+
+    @Override
+    public void init(Container container) {
+        super.init(container);
+        final CoreConfiguration config = container.get(CoreConfiguration.KEY);
+        if (config != null) {
+            freshnessMillis = config.getModuleStateFreshness();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        clear();
+    }
+
+    @Override
+    public RoutingKey[] getRoutingKeys() {
+        return new RoutingKey[]{
+                APP_LIGHT_UPDATE, SLAVE_LIGHT_GET_REPLY, SLAVE_LIGHT_SET_REPLY,
+                MASTER_DOOR_STATUS_UPDATE, APP_DOOR_STATUS_UPDATE,
+                MASTER_PUSH_WEATHER_INFO, MASTER_REQUEST_WEATHER_INFO_REPLY,
+                MASTER_MODULE_REMOVE
+        };
+    }
+
+    @Override
+    public void handle(Message.AddressedMessage message) {
+        if (MASTER_MODULE_REMOVE.matches(message)) {
+            final ModifyModulePayload payload = MASTER_MODULE_REMOVE.getPayload(message);
+            invalidate(ModulePayloads.getModuleName(payload));
+            return;
+        }
+        for (RoutingKey routingKey : getRoutingKeys()) {
+            if (routingKey.matches(message)) {
+                put(message.getPayloadChecked(MessagePayload.class));
+                return;
+            }
+        }
+        invalidMessage(message);
+    }
+
+    /**
+     * Cache the given state of a Module.
+     *
+     * @return {@code false} if the payload is not cacheable or refers to no Module
+     */
+    public boolean put(@Nullable MessagePayload payload) {
+        final String moduleName = ModulePayloads.getModuleName(payload);
+        if (payload == null || moduleName == null) {
+            return false;
+        }
+        final ConcurrentMap<String, CachedState> moduleStates = states.get(payload.getClass());
+        if (moduleStates == null) {
+            return false;
+        }
+        moduleStates.put(moduleName, new CachedState(payload, System.currentTimeMillis()));
+        return true;
+    }
+
+    /**
+     * @return the cached state of the given Module if it is not older than the given time, otherwise {@code null}
+     */
+    @Nullable
+    public <T extends MessagePayload> T get(Class<T> payloadClass, String moduleName, long maxAgeMillis) {
+        final ConcurrentMap<String, CachedState> moduleStates = states.get(payloadClass);
+        final CachedState state = moduleStates == null ? null : moduleStates.get(moduleName);
+        if (state == null) {
+            misses.incrementAndGet();
+            return null;
+        } else if (System.currentTimeMillis() - state.timestamp > maxAgeMillis) {
+            staleMisses.incrementAndGet();
+            return null;
+        } else {
+            hits.incrementAndGet();
+            return payloadClass.cast(state.payload);
+        }
+    }
+
+    /**
+     * Reply to the given request with the cached state of the Module it refers to, if the state is fresh enough.
+     *
+     * @param request  a request for the state of a Module, e.g. sent to {@link RoutingKeys#MASTER_LIGHT_GET}
+     * @param replyKey the RoutingKey of the reply, which defines the type of the cached state
+     * @return {@code true} if the request was answered, {@code false} if the state must be requested from the Slave
+     */
+    public <T extends MessagePayload> boolean answerFromCache(Message.AddressedMessage request, RoutingKey<T> replyKey) {
+        final String moduleName = ModulePayloads.getModuleName(request.getPayloadChecked(MessagePayload.class));
+        if (moduleName == null) {
+            return false;
+        }
+        final T state = get(replyKey.getPayloadClass(), moduleName, freshnessMillis);
+        if (state == null) {
+            return false;
+        }
+        sendReply(request, new Message(state));
+        return true;
+    }
+
+    /**
+     * Remove all cached states of the given Module, e.g. because it was changed or removed.
+     */
+    public void invalidate(@Nullable String moduleName) {
+        if (moduleName == null) {
+            return;
+        }
+        for (ConcurrentMap<String, CachedState> moduleStates : states.values()) {
+            moduleStates.remove(moduleName);
+        }
+    }
+
+    public void clear() {
+        for (ConcurrentMap<String, CachedState> moduleStates : states.values()) {
+            moduleStates.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups for which no state was cached
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of lookups for which the cached state was too old
+     */
+    public long getStaleCount() {
+        return staleMisses.get();
+    }
+
+    /**
+     * @return the ratio of lookups answered from the cache, {@code 0} if there were no lookups yet
+     */
+    public double getHitRatio() {
+        final long hits = getHitCount();
+        final long total = hits + getMissCount() + getStaleCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static class CachedState {
+        private final MessagePayload payload;
+        private final long timestamp;
+
+        private CachedState(MessagePayload payload, long timestamp) {
+            this.payload = payload;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -26,14 +26,33 @@
 
 package de.unipassau.isl.evs.ssh.core.messaging;
 
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
 import de.ncoder.typedmap.Key;
 import de.unipassau.isl.evs.ssh.core.CoreConstants;
 import de.unipassau.isl.evs.ssh.core.container.AbstractComponent;
 import de.unipassau.isl.evs.ssh.core.container.AccessLogger;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.ErrorPayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.MessagePayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.PreSerializedPayload;
 import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
 import de.unipassau.isl.evs.ssh.core.naming.NamingManager;
+import de.unipassau.isl.evs.ssh.core.schedule.ExecutionServiceComponent;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseNotifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +64,10 @@ import org.slf4j.LoggerFactory;
 public abstract class OutgoingRouter extends AbstractComponent {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     public static final Key<OutgoingRouter> KEY = new Key<>(OutgoingRouter.class);
+    private final PendingRequests pendingRequests = new PendingRequests();
+    private final List<WritabilityListener> writabilityListeners = new CopyOnWriteArrayList<>();
+    private final Map<DeviceID, Queue<DelayedMessage>> delayed = new HashMap<>();
+    private final AtomicLong expiredCount = new AtomicLong();
 
     /**
      * Forwards the message to the correct internal Server or Client pipeline, depending on the
@@ -52,9 +75,47 @@ public abstract class OutgoingRouter extends AbstractComponent {
      */
     protected abstract Future<Void> doSendMessage(Message.AddressedMessage message);
 
+    /**
+     * Forwards all messages like {@link #doSendMessage(Message.AddressedMessage)}, but allows implementations to
+     * write them all at once and only flush the connections afterwards.
+     *
+     * @return the futures for sending the messages, in the same order as the messages
+     */
+    protected List<Future<Void>> doSendMessages(List<Message.AddressedMessage> messages) {
+        final List<Future<Void>> futures = new ArrayList<>(messages.size());
+        for (Message.AddressedMessage message : messages) {
+            futures.add(doSendMessage(message));
+        }
+        return futures;
+    }
+
     private Message.AddressedMessage sendMessage(DeviceID toID, String routingKey, Message msg, boolean log) {
-        final Message.AddressedMessage amsg = msg.setDestination(getOwnID(), toID, routingKey);
-        final Future<Void> future = doSendMessage(amsg);
+        return send(msg.setDestination(getOwnID(), toID, routingKey), log);
+    }
+
+    private Message.AddressedMessage send(final Message.AddressedMessage amsg, boolean log) {
+        if (amsg.isExpired()) {
+            return sent(amsg, newExpiredFuture(amsg), false);
+        }
+        return sent(amsg, doSendMessage(amsg), log);
+    }
+
+    private Future<Void> newExpiredFuture(Message.AddressedMessage amsg) {
+        return requireComponent(ExecutionServiceComponent.KEY).newFailedFuture(expired(amsg));
+    }
+
+    /**
+     * Count and log a message that is not sent because its {@link Message#HEADER_TIMEOUT timeout} expired.
+     *
+     * @return the exception the send future of the message should be failed with
+     */
+    protected TimeoutException expired(Message.AddressedMessage amsg) {
+        expiredCount.incrementAndGet();
+        logger.debug("Timeout of message " + amsg + " expired, not sending it");
+        return new TimeoutException("Timeout of message " + amsg.getSequenceNr() + " expired before it was sent");
+    }
+
+    private Message.AddressedMessage sent(final Message.AddressedMessage amsg, Future<Void> future, boolean log) {
         amsg.setSendFuture(future);
         if (log) {
             future.addListener(new GenericFutureListener<Future<Void>>() {
@@ -139,6 +200,197 @@ public abstract class OutgoingRouter extends AbstractComponent {
         return sendMessageToMaster(routingKey.getKey(), msg);
     }
 
+    /**
+     * Send all messages at once, so that the messages to the same device are written to its connection in the
+     * given order and sent using a single flush.
+     *
+     * @throws IllegalArgumentException if the payload defined in the RoutingKey doesn't match the payload of a message.
+     * @see #sendMessage(DeviceID, RoutingKey, Message)
+     */
+    public List<Message.AddressedMessage> sendMessages(Collection<Delivery> deliveries) {
+        final List<Message.AddressedMessage> amsgs = new ArrayList<>(deliveries.size());
+        for (Delivery delivery : deliveries) {
+            if (!delivery.routingKey.payloadMatches(delivery.message)) {
+                throw new IllegalArgumentException("Message payload does not match routing key "
+                        + delivery.routingKey + ":\n" + delivery.message);
+            }
+        }
+        for (Delivery delivery : deliveries) {
+            amsgs.add(delivery.message.setDestination(getOwnID(), delivery.toID, delivery.routingKey.getKey()));
+        }
+        return sendAll(amsgs);
+    }
+
+    /**
+     * Send the same message to all given devices, serializing its payload only once.
+     * The payload is wrapped in a {@link PreSerializedPayload}, so that only the per-recipient envelope is serialized
+     * and encrypted for each device. A message sent to this device itself contains the original payload.
+     *
+     * @throws IllegalArgumentException if the payload defined in the RoutingKey doesn't match the payload of the message
+     *                                  or the payload is not serializable.
+     * @see #sendMessages(Collection)
+     */
+    public List<Message.AddressedMessage> sendToAll(Collection<DeviceID> toIDs, RoutingKey<?> routingKey, Message msg) {
+        if (!routingKey.payloadMatches(msg)) {
+            throw new IllegalArgumentException("Message payload does not match routing key " + routingKey + ":\n" + msg);
+        }
+        final DeviceID ownID = getOwnID();
+        final MessagePayload payload = msg.getPayloadUnchecked();
+        MessagePayload shared = payload;
+        if (payload != null && toIDs.size() > 1) {
+            try {
+                shared = PreSerializedPayload.serialize(payload);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Payload of message " + msg + " is not serializable", e);
+            }
+        }
+        final List<Message.AddressedMessage> amsgs = new ArrayList<>(toIDs.size());
+        for (DeviceID toID : toIDs) {
+            amsgs.add(msg.setDestination(ownID, toID, routingKey.getKey(), ownID.equals(toID) ? payload : shared));
+        }
+        return sendAll(amsgs);
+    }
+
+    private List<Message.AddressedMessage> sendAll(List<Message.AddressedMessage> amsgs) {
+        final List<Message.AddressedMessage> live = new ArrayList<>(amsgs.size());
+        for (Message.AddressedMessage amsg : amsgs) {
+            if (amsg.isExpired()) {
+                sent(amsg, newExpiredFuture(amsg), false);
+            } else {
+                live.add(amsg);
+            }
+        }
+        final List<Future<Void>> futures = doSendMessages(live);
+        for (int i = 0; i < live.size(); i++) {
+            sent(live.get(i), futures.get(i), true);
+        }
+        return amsgs;
+    }
+
+    /**
+     * Send the message like {@link #sendMessage(DeviceID, RoutingKey, Message)}, but apply the given {@link SendMode}
+     * if the connection to the receiving device is {@link #isWritable(DeviceID) saturated}.
+     *
+     * @throws IllegalArgumentException if the payload defined in the RoutingKey doesn't match the payload of the message.
+     */
+    public Message.AddressedMessage sendMessage(DeviceID toID, RoutingKey<?> routingKey, Message msg, SendMode mode) {
+        if (!routingKey.payloadMatches(msg)) {
+            throw new IllegalArgumentException("Message payload does not match routing key " + routingKey + ":\n" + msg);
+        }
+        final Message.AddressedMessage amsg = msg.setDestination(getOwnID(), toID, routingKey.getKey());
+        if (amsg.isExpired()) {
+            return sent(amsg, newExpiredFuture(amsg), false);
+        }
+        switch (mode) {
+            case FAIL:
+                if (!isWritable(toID)) {
+                    final IOException e = new IOException("Connection to " + toID + " is saturated");
+                    return sent(amsg, requireComponent(ExecutionServiceComponent.KEY).<Void>newFailedFuture(e), true);
+                }
+                return send(amsg, true);
+            case DELAY:
+                return sent(amsg, delay(amsg), true);
+            default:
+                return send(amsg, true);
+        }
+    }
+
+    private Future<Void> delay(Message.AddressedMessage amsg) {
+        synchronized (delayed) {
+            Queue<DelayedMessage> queue = delayed.get(amsg.getToID());
+            if ((queue == null || queue.isEmpty()) && isWritable(amsg.getToID())) {
+                return doSendMessage(amsg);
+            }
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                delayed.put(amsg.getToID(), queue);
+            } else if (queue.size() >= CoreConstants.DispatcherConstants.MAX_DELAYED_MESSAGES) {
+                final IOException e = new IOException("Too many messages delayed for " + amsg.getToID());
+                return requireComponent(ExecutionServiceComponent.KEY).newFailedFuture(e);
+            }
+            final Promise<Void> promise = requireComponent(ExecutionServiceComponent.KEY).newPromise();
+            queue.add(new DelayedMessage(amsg, promise));
+            return promise;
+        }
+    }
+
+    private void sendDelayed(DeviceID toID) {
+        synchronized (delayed) {
+            final Queue<DelayedMessage> queue = delayed.get(toID);
+            while (queue != null && !queue.isEmpty() && isWritable(toID)) {
+                final DelayedMessage message = queue.poll();
+                if (message.message.isExpired()) {
+                    message.promise.tryFailure(expired(message.message));
+                    continue;
+                }
+                doSendMessage(message.message).addListener(new PromiseNotifier<Void, Future<Void>>(message.promise));
+            }
+        }
+    }
+
+    /**
+     * Fail all messages {@link SendMode#DELAY delayed} for the given device, or for all devices if it is {@code null}.
+     */
+    private void failDelayed(DeviceID toID, Throwable cause) {
+        final List<DelayedMessage> failed = new ArrayList<>();
+        synchronized (delayed) {
+            if (toID == null) {
+                for (Queue<DelayedMessage> queue : delayed.values()) {
+                    failed.addAll(queue);
+                }
+                delayed.clear();
+            } else {
+                final Queue<DelayedMessage> queue = delayed.remove(toID);
+                if (queue != null) {
+                    failed.addAll(queue);
+                }
+            }
+        }
+        for (DelayedMessage message : failed) {
+            message.promise.tryFailure(cause);
+        }
+    }
+
+    /**
+     * Return {@code false} if the connection to the given device is saturated, i.e. the amount of data waiting to
+     * be sent exceeds the configured high water mark, or the device is not connected.
+     * Producers of large or many messages should wait until the {@link WritabilityListener} is notified instead
+     * of sending further messages.
+     */
+    public boolean isWritable(DeviceID toID) {
+        return true;
+    }
+
+    public void addWritabilityListener(WritabilityListener listener) {
+        writabilityListeners.add(listener);
+    }
+
+    public void removeWritabilityListener(WritabilityListener listener) {
+        writabilityListeners.remove(listener);
+    }
+
+    /**
+     * Called by implementations once the {@link #isWritable(DeviceID) writability} of the connection to a device changed.
+     * Sends the messages {@link SendMode#DELAY delayed} for the device and notifies all {@link WritabilityListener}s.
+     */
+    protected void notifyWritabilityChanged(DeviceID deviceID, boolean writable) {
+        if (writable) {
+            sendDelayed(deviceID);
+        }
+        for (WritabilityListener listener : writabilityListeners) {
+            listener.onWritabilityChanged(deviceID, writable);
+        }
+    }
+
+    /**
+     * Called by implementations once the connection to a device was lost.
+     * Fails all messages {@link SendMode#DELAY delayed} for the device and notifies all {@link WritabilityListener}s.
+     */
+    protected void notifyDisconnected(DeviceID deviceID) {
+        failDelayed(deviceID, new ClosedChannelException());
+        notifyWritabilityChanged(deviceID, false);
+    }
+
     /**
      * Sends a reply message to the device the original message came from.
      * Also sets the {@link Message#HEADER_REFERENCES_ID} of the sent message to the sequence number of the original message.
@@ -147,6 +399,14 @@ public abstract class OutgoingRouter extends AbstractComponent {
      */
     public Message.AddressedMessage sendReply(Message.AddressedMessage original, Message reply) {
         reply.putHeader(Message.HEADER_REFERENCES_ID, original.getSequenceNr());
+        final BatchHandler batchHandler = getComponent(BatchHandler.KEY);
+        if (batchHandler != null && batchHandler.collectReply(original, reply)) {
+            // the reply is part of a batch reply, which will be sent once all entries are answered
+            final Message.AddressedMessage amsg = reply.setDestination(
+                    getOwnID(), original.getFromID(), RoutingKey.getReplyKey(original.getRoutingKey()));
+            amsg.setSendFuture(requireComponent(ExecutionServiceComponent.KEY).<Void>newSucceededFuture(null));
+            return amsg;
+        }
         final Message.AddressedMessage amsg = sendMessage(
                 original.getFromID(),
                 RoutingKey.getReplyKey(original.getRoutingKey()),
@@ -173,6 +433,129 @@ public abstract class OutgoingRouter extends AbstractComponent {
         return amsg;
     }
 
+    /**
+     * Send a request to the given device and return a Future that is completed with the payload of the reply.
+     * If the receiver answers with an {@link ErrorPayload}, the Future fails with that ErrorPayload, if no reply is
+     * received within the timeout, it fails with a {@link TimeoutException}.
+     * Replies are matched to their request using the {@link Message#HEADER_REFERENCES_ID} set by
+     * {@link #sendReply(Message.AddressedMessage, Message)}, so any number of requests can be outstanding at once.
+     *
+     * @param toID          ID of the receiving device.
+     * @param routingKey    RoutingKey of the request.
+     * @param replyKey      RoutingKey of the expected reply, see {@link RoutingKey#getReply(Class)}.
+     * @param msg           the request Message.
+     * @param timeoutMillis time in milliseconds to wait for the reply.
+     * @throws IllegalArgumentException if the payload defined in the RoutingKey doesn't match the payload of the message.
+     */
+    public <Req, Resp> Future<Resp> request(DeviceID toID, RoutingKey<Req> routingKey, RoutingKey<Resp> replyKey,
+                                            Message msg, long timeoutMillis) {
+        if (!routingKey.payloadMatches(msg)) {
+            throw new IllegalArgumentException("Message payload does not match routing key " + routingKey + ":\n" + msg);
+        }
+        if (msg.getHeader(Message.HEADER_TIMEOUT) == null) {
+            msg.setTimeout(timeoutMillis);
+        }
+        final Message.AddressedMessage amsg = msg.setDestination(getOwnID(), toID, routingKey.getKey());
+        // register the request before sending it, as the reply may arrive before send returns
+        final Promise<Resp> promise = pendingRequests.add(amsg, replyKey, timeoutMillis,
+                requireComponent(ExecutionServiceComponent.KEY), requireComponent(IncomingDispatcher.KEY));
+        send(amsg, true).getSendFuture().addListener(new GenericFutureListener<Future<Void>>() {
+            @Override
+            public void operationComplete(Future<Void> future) throws Exception {
+                if (!future.isSuccess()) {
+                    promise.tryFailure(future.cause());
+                }
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * @return the number of messages that were not sent because their {@link Message#HEADER_TIMEOUT timeout} expired.
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return the number of requests sent using {@link #request(DeviceID, RoutingKey, RoutingKey, Message, long)}
+     * that are still waiting for their reply.
+     */
+    public int getPendingRequestCount() {
+        return pendingRequests.size();
+    }
+
+    @Override
+    public void destroy() {
+        pendingRequests.clear();
+        failDelayed(null, new ClosedChannelException());
+        super.destroy();
+    }
+
+    /**
+     * What {@link #sendMessage(DeviceID, RoutingKey, Message, SendMode)} does with a message if the connection
+     * to its receiver is not {@link #isWritable(DeviceID) writable}.
+     */
+    public enum SendMode {
+        /**
+         * Send the message anyway, buffering it in memory until it can be written.
+         */
+        BUFFER,
+        /**
+         * Don't send the message and return an already failed future.
+         */
+        FAIL,
+        /**
+         * Hold the message back until the connection is writable again.
+         * The message fails if the connection is lost in the meantime or too many messages are already delayed.
+         */
+        DELAY
+    }
+
+    /**
+     * Notified once the {@link #isWritable(DeviceID) writability} of the connection to a device changed.
+     */
+    public interface WritabilityListener {
+        void onWritabilityChanged(DeviceID deviceID, boolean writable);
+    }
+
+    private static class DelayedMessage {
+        private final Message.AddressedMessage message;
+        private final Promise<Void> promise;
+
+        private DelayedMessage(Message.AddressedMessage message, Promise<Void> promise) {
+            this.message = message;
+            this.promise = promise;
+        }
+    }
+
+    /**
+     * A Message together with its destination, to be sent using {@link #sendMessages(Collection)}.
+     */
+    public static class Delivery {
+        private final DeviceID toID;
+        private final RoutingKey<?> routingKey;
+        private final Message message;
+
+        public Delivery(DeviceID toID, RoutingKey<?> routingKey, Message message) {
+            this.toID = toID;
+            this.routingKey = routingKey;
+            this.message = message;
+        }
+
+        public DeviceID getToID() {
+            return toID;
+        }
+
+        public RoutingKey<?> getRoutingKey() {
+            return routingKey;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+    }
+
     protected DeviceID getMasterID() {
         return requireComponent(NamingManager.KEY).getMasterID();
     }
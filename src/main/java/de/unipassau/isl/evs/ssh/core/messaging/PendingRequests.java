@@ -0,0 +1,174 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.messaging;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import de.unipassau.isl.evs.ssh.core.handler.MessageHandler;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.ErrorPayload;
+import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
+import de.unipassau.isl.evs.ssh.core.schedule.ExecutionServiceComponent;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The table of requests sent using {@link OutgoingRouter#request(DeviceID, RoutingKey, RoutingKey, Message, long)}
+ * that are still waiting for their reply, keyed by the {@link Message.AddressedMessage#getSequenceNr() sequence number}
+ * of the request. Registers itself on the {@link IncomingDispatcher} for every expected reply RoutingKey and the
+ * corresponding {@link ErrorPayload} RoutingKey and completes the Promise of the request referenced by the
+ * {@link Message#HEADER_REFERENCES_ID} of the reply.
+ */
+class PendingRequests implements MessageHandler {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final ConcurrentMap<Integer, PendingRequest<?>> pending = new ConcurrentHashMap<>();
+    private final Set<RoutingKey<?>> registeredKeys = Collections.newSetFromMap(new ConcurrentHashMap<RoutingKey<?>, Boolean>());
+    private IncomingDispatcher dispatcher;
+
+    /**
+     * Add a request whose sequence number is already set, but that has not been sent yet, to the table.
+     * The request is removed once the returned Promise completes, either with the reply, the error reply,
+     * a {@link TimeoutException} after the given time or by being cancelled.
+     */
+    <T> Promise<T> add(Message.AddressedMessage request, RoutingKey<T> replyKey, final long timeoutMillis,
+                       ExecutionServiceComponent executor, IncomingDispatcher dispatcher) {
+        register(dispatcher, replyKey);
+        register(dispatcher, new RoutingKey<>(replyKey.getKey(), ErrorPayload.class));
+
+        final PendingRequest<T> pendingRequest = new PendingRequest<>(request, replyKey, executor.<T>newPromise());
+        pending.put(request.getSequenceNr(), pendingRequest);
+        pendingRequest.timeout = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pendingRequest.promise.tryFailure(new TimeoutException(
+                        "No reply to " + pendingRequest.request + " within " + timeoutMillis + "ms"));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        pendingRequest.promise.addListener(pendingRequest);
+        return pendingRequest.promise;
+    }
+
+    private synchronized void register(IncomingDispatcher dispatcher, RoutingKey<?> routingKey) {
+        if (this.dispatcher != dispatcher) {
+            clear();
+            this.dispatcher = dispatcher;
+        }
+        if (!registeredKeys.contains(routingKey)) {
+            dispatcher.registerHandler(this, routingKey);
+        }
+    }
+
+    /**
+     * Unregister from the IncomingDispatcher and fail all requests that are still pending.
+     */
+    synchronized void clear() {
+        if (dispatcher != null) {
+            dispatcher.unregisterHandler(this, registeredKeys.toArray(new RoutingKey<?>[registeredKeys.size()]));
+            dispatcher = null;
+        }
+        for (PendingRequest<?> request : pending.values()) {
+            request.promise.tryFailure(new IllegalStateException("OutgoingRouter was shut down"));
+        }
+        pending.clear();
+    }
+
+    int size() {
+        return pending.size();
+    }
+
+    @Override
+    public void handle(Message.AddressedMessage message) {
+        final Integer referencedID = message.getHeader(Message.HEADER_REFERENCES_ID);
+        if (referencedID == null) {
+            return;
+        }
+        final PendingRequest<?> request = pending.get(referencedID);
+        if (request == null) {
+            logger.debug("Received reply " + message + " for unknown or expired request #" + referencedID);
+        } else if (!request.isReply(message)) {
+            logger.warn("Received reply " + message + " not matching request " + request.request);
+        } else {
+            request.complete(message);
+        }
+    }
+
+    @Override
+    public void handlerAdded(IncomingDispatcher dispatcher, RoutingKey routingKey) {
+        registeredKeys.add(routingKey);
+    }
+
+    @Override
+    public void handlerRemoved(RoutingKey routingKey) {
+        registeredKeys.remove(routingKey);
+    }
+
+    private class PendingRequest<T> implements GenericFutureListener<Future<T>> {
+        private final Message.AddressedMessage request;
+        private final RoutingKey<T> replyKey;
+        private final Promise<T> promise;
+        private ScheduledFuture<?> timeout;
+
+        private PendingRequest(Message.AddressedMessage request, RoutingKey<T> replyKey, Promise<T> promise) {
+            this.request = request;
+            this.replyKey = replyKey;
+            this.promise = promise;
+        }
+
+        private boolean isReply(Message.AddressedMessage message) {
+            final DeviceID toID = request.getToID();
+            return Objects.equals(message.getFromID(), toID) && replyKey.getKey().equals(message.getRoutingKey());
+        }
+
+        private void complete(Message.AddressedMessage reply) {
+            final Object payload = reply.getPayloadChecked(Object.class);
+            if (payload instanceof ErrorPayload) {
+                promise.tryFailure((ErrorPayload) payload);
+            } else if (replyKey.payloadMatches(reply)) {
+                promise.trySuccess(replyKey.getPayload(reply));
+            } else {
+                promise.tryFailure(new IllegalStateException("Reply " + reply + " doesn't match " + replyKey));
+            }
+        }
+
+        @Override
+        public void operationComplete(Future<T> future) throws Exception {
+            pending.remove(request.getSequenceNr(), this);
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+    }
+}
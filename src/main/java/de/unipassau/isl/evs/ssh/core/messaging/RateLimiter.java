@@ -0,0 +1,259 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.messaging;
+
+import com.google.common.util.concurrent.AtomicLongMap;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.unipassau.isl.evs.ssh.core.CoreConstants.DispatcherConstants;
+import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Limits the rate of incoming messages per sending device and String RoutingKey using the generic cell rate algorithm,
+ * which is equivalent to a token bucket. The state of each bucket is a single {@link AtomicLong} holding the
+ * theoretical arrival time of the next message, so checking a message requires no locking and no allocation once
+ * the bucket exists.
+ * <p>
+ * A bucket whose theoretical arrival time has passed is equivalent to a new one, so idle buckets are purged once the
+ * number of buckets exceeds the configured maximum. The {@link IncomingDispatcher} only takes tokens for RoutingKeys
+ * with a registered handler and {@link #reset(DeviceID) resets} the buckets of a device once it disconnects, so that
+ * a peer can't grow the state by sending to made-up RoutingKeys.
+ */
+public class RateLimiter {
+    private final ConcurrentMap<DeviceID, ConcurrentMap<String, AtomicLong>> buckets = new ConcurrentHashMap<>();
+    private final AtomicLongMap<String> limitedCounts = AtomicLongMap.create();
+    private final AtomicInteger bucketCount = new AtomicInteger();
+    private final int maxBuckets;
+    @Nullable
+    private final Limit defaultLimit;
+    private final Map<String, Limit> limits;
+    private final Action action;
+
+    /**
+     * @param defaultLimit the limit for all RoutingKeys without own limit or {@code null} if they are not limited
+     * @param limits       the limits for individual String RoutingKeys, a {@code null} value means not limited
+     * @param action       what to do with messages exceeding the limit
+     */
+    public RateLimiter(@Nullable Limit defaultLimit, Map<String, Limit> limits, Action action) {
+        this(defaultLimit, limits, action, DispatcherConstants.RATE_LIMIT_MAX_BUCKETS);
+    }
+
+    /**
+     * @param defaultLimit the limit for all RoutingKeys without own limit or {@code null} if they are not limited
+     * @param limits       the limits for individual String RoutingKeys, a {@code null} value means not limited
+     * @param action       what to do with messages exceeding the limit
+     * @param maxBuckets   the number of buckets after which idle buckets are purged, if there are still too many
+     *                     buckets afterwards, messages needing a new bucket exceed the limit
+     */
+    public RateLimiter(@Nullable Limit defaultLimit, Map<String, Limit> limits, Action action, int maxBuckets) {
+        if (maxBuckets < 1) {
+            throw new IllegalArgumentException("maxBuckets " + maxBuckets + " < 1");
+        }
+        this.maxBuckets = maxBuckets;
+        this.defaultLimit = defaultLimit;
+        this.limits = limits;
+        this.action = action;
+    }
+
+    /**
+     * Take a token for a message of the given device sent to the given RoutingKey.
+     *
+     * @return {@code true} if the message is within the limit, {@code false} if it exceeds the limit
+     */
+    public boolean tryAcquire(DeviceID fromID, String routingKey) {
+        final Limit limit = getLimit(routingKey);
+        if (limit == null) {
+            return true;
+        }
+        final AtomicLong bucket = getBucket(fromID, routingKey);
+        if (bucket == null) {
+            limitedCounts.incrementAndGet(routingKey);
+            return false;
+        }
+        while (true) {
+            final long now = System.nanoTime();
+            final long arrival = bucket.get();
+            final long next = (arrival - now > 0 ? arrival : now) + limit.interval;
+            if (next - now > limit.tolerance) {
+                limitedCounts.incrementAndGet(routingKey);
+                return false;
+            }
+            if (bucket.compareAndSet(arrival, next)) {
+                return true;
+            }
+        }
+    }
+
+    @Nullable
+    private AtomicLong getBucket(DeviceID fromID, String routingKey) {
+        ConcurrentMap<String, AtomicLong> deviceBuckets = buckets.get(fromID);
+        if (deviceBuckets == null) {
+            final ConcurrentMap<String, AtomicLong> created = new ConcurrentHashMap<>();
+            deviceBuckets = buckets.putIfAbsent(fromID, created);
+            if (deviceBuckets == null) {
+                deviceBuckets = created;
+            }
+        }
+        AtomicLong bucket = deviceBuckets.get(routingKey);
+        if (bucket == null) {
+            if (bucketCount.get() >= maxBuckets) {
+                purgeIdle();
+                if (bucketCount.get() >= maxBuckets) {
+                    return null;
+                }
+            }
+            final AtomicLong created = new AtomicLong(System.nanoTime());
+            bucket = deviceBuckets.putIfAbsent(routingKey, created);
+            if (bucket == null) {
+                bucketCount.incrementAndGet();
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Remove all buckets whose theoretical arrival time has passed, as they are full again.
+     */
+    private void purgeIdle() {
+        final long now = System.nanoTime();
+        for (Iterator<ConcurrentMap<String, AtomicLong>> devices = buckets.values().iterator(); devices.hasNext(); ) {
+            final ConcurrentMap<String, AtomicLong> deviceBuckets = devices.next();
+            for (Iterator<AtomicLong> it = deviceBuckets.values().iterator(); it.hasNext(); ) {
+                if (it.next().get() - now <= 0) {
+                    it.remove();
+                    bucketCount.decrementAndGet();
+                }
+            }
+            if (deviceBuckets.isEmpty()) {
+                devices.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of buckets currently kept
+     */
+    public int getBucketCount() {
+        return bucketCount.get();
+    }
+
+    /**
+     * @return the limit for the given String RoutingKey or {@code null} if messages sent to it are not limited
+     */
+    @Nullable
+    public Limit getLimit(String routingKey) {
+        return limits.containsKey(routingKey) ? limits.get(routingKey) : defaultLimit;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * @return the number of messages sent to the given String RoutingKey that exceeded the limit
+     */
+    public long getLimitedCount(String routingKey) {
+        return limitedCounts.get(routingKey);
+    }
+
+    /**
+     * @return the number of messages that exceeded the limit, by String RoutingKey
+     */
+    public Map<String, Long> getLimitedCounts() {
+        return Collections.unmodifiableMap(limitedCounts.asMap());
+    }
+
+    /**
+     * Forget the state of all buckets of the given device, e.g. once it disconnected.
+     */
+    public void reset(DeviceID fromID) {
+        final ConcurrentMap<String, AtomicLong> removed = buckets.remove(fromID);
+        if (removed != null) {
+            bucketCount.addAndGet(-removed.size());
+        }
+    }
+
+    /**
+     * A limit of on average {@code rate} messages per second with up to {@code burst} messages at once.
+     */
+    public static class Limit {
+        private final double rate;
+        private final int burst;
+        private final long interval;
+        private final long tolerance;
+
+        public Limit(double rate, int burst) {
+            if (!(rate > 0)) {
+                throw new IllegalArgumentException("rate " + rate + " <= 0");
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("burst " + burst + " < 1");
+            }
+            this.rate = rate;
+            this.burst = burst;
+            this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+            this.tolerance = interval * burst;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+
+        @Override
+        public String toString() {
+            return rate + "/s (burst " + burst + ")";
+        }
+    }
+
+    /**
+     * What the IncomingDispatcher does with a message exceeding the limit.
+     */
+    public enum Action {
+        /**
+         * Silently drop the message.
+         */
+        DROP,
+        /**
+         * Drop the message and answer the sender with an {@link de.unipassau.isl.evs.ssh.core.messaging.payload.ErrorPayload}.
+         */
+        REJECT
+    }
+}
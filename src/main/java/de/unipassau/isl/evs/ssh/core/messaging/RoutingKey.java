@@ -42,16 +42,29 @@ public class RoutingKey<T> {
     private static final String SUFFIX_ERROR = "/error";
     private final Class<T> clazz;
     private final String key;
+    private final Priority priority;
 
     public RoutingKey(String key, Class<T> clazz) {
+        this(key, clazz, Priority.NORMAL);
+    }
+
+    /**
+     * @param priority the priority with which the {@link IncomingDispatcher} schedules handlers for messages sent
+     *                 to this RoutingKey. Not part of {@link #equals(Object)}.
+     */
+    public RoutingKey(String key, Class<T> clazz, Priority priority) {
         if (clazz == null) {
             throw new NullPointerException("class");
         }
         if (key == null) {
             throw new NullPointerException("key");
         }
+        if (priority == null) {
+            throw new NullPointerException("priority");
+        }
         this.clazz = clazz;
         this.key = key;
+        this.priority = priority;
     }
 
     /**
@@ -78,12 +91,22 @@ public class RoutingKey<T> {
         return key;
     }
 
+    /**
+     * @return the default priority for dispatching messages sent to this RoutingKey,
+     * which may be overridden by the {@link de.unipassau.isl.evs.ssh.core.CoreConfiguration}.
+     */
+    @NotNull
+    public Priority getPriority() {
+        return priority;
+    }
+
     /**
      * Return a RoutingKey that identifies a response to messages identified by this RoutingKey with the given response payload.
+     * The reply has the same {@link #getPriority() priority} as this RoutingKey.
      */
     @NotNull
     public <V> RoutingKey<V> getReply(Class<V> replyPayload) {
-        return new RoutingKey<>(getReplyKey(key), replyPayload);
+        return new RoutingKey<>(getReplyKey(key), replyPayload, priority);
     }
 
     @NotNull
@@ -151,4 +174,20 @@ public class RoutingKey<T> {
     public int hashCode() {
         return 31 * clazz.hashCode() + key.hashCode();
     }
+
+    /**
+     * Priorities used by the {@link IncomingDispatcher} to decide which handler is executed next if messages are
+     * arriving faster than they can be handled.
+     */
+    public enum Priority {
+        /**
+         * Interactive operations a user is waiting for, e.g. unlatching the door or changing permissions.
+         */
+        HIGH,
+        NORMAL,
+        /**
+         * Periodic telemetry and status updates where a newer message makes the older ones obsolete.
+         */
+        LOW
+    }
 }
@@ -26,6 +26,7 @@
 
 package de.unipassau.isl.evs.ssh.core.messaging;
 
+import de.unipassau.isl.evs.ssh.core.messaging.payload.BatchPayload;
 import de.unipassau.isl.evs.ssh.core.messaging.payload.CameraPayload;
 import de.unipassau.isl.evs.ssh.core.messaging.payload.ClimatePayload;
 import de.unipassau.isl.evs.ssh.core.messaging.payload.DeleteDevicePayload;
@@ -48,9 +49,13 @@ import de.unipassau.isl.evs.ssh.core.messaging.payload.SetGroupTemplatePayload;
 import de.unipassau.isl.evs.ssh.core.messaging.payload.SetPermissionPayload;
 import de.unipassau.isl.evs.ssh.core.messaging.payload.SetUserGroupPayload;
 import de.unipassau.isl.evs.ssh.core.messaging.payload.SetUserNamePayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.SubscriptionPayload;
 import de.unipassau.isl.evs.ssh.core.messaging.payload.SystemHealthPayload;
 import de.unipassau.isl.evs.ssh.core.messaging.payload.UserDeviceInformationPayload;
 
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKey.Priority.HIGH;
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKey.Priority.LOW;
+
 /**
  * This class contains constants for RoutingKeys
  *
@@ -65,7 +70,7 @@ public enum RoutingKeys {
     private static final String PREFIX_GLOBAL = "/global";
 
     // BEGIN: UserConfiguration
-    public static final RoutingKey<SetPermissionPayload> MASTER_PERMISSION_SET = new RoutingKey<>(PREFIX_MASTER + "/permission/set", SetPermissionPayload.class);
+    public static final RoutingKey<SetPermissionPayload> MASTER_PERMISSION_SET = new RoutingKey<>(PREFIX_MASTER + "/permission/set", SetPermissionPayload.class, HIGH);
     public static final RoutingKey<Void> MASTER_PERMISSION_SET_REPLY = MASTER_PERMISSION_SET.getReply(Void.class);
     public static final RoutingKey<ErrorPayload> MASTER_PERMISSION_SET_ERROR = MASTER_PERMISSION_SET.getReply(ErrorPayload.class);
 
@@ -73,7 +78,7 @@ public enum RoutingKeys {
     public static final RoutingKey<Void> MASTER_USERNAME_SET_REPLY = MASTER_USER_SET_NAME.getReply(Void.class);
     public static final RoutingKey<ErrorPayload> MASTER_USERNAME_SET_ERROR = MASTER_USER_SET_NAME.getReply(ErrorPayload.class);
 
-    public static final RoutingKey<SetUserGroupPayload> MASTER_USER_SET_GROUP = new RoutingKey<>(PREFIX_MASTER + "/user/set/group", SetUserGroupPayload.class);
+    public static final RoutingKey<SetUserGroupPayload> MASTER_USER_SET_GROUP = new RoutingKey<>(PREFIX_MASTER + "/user/set/group", SetUserGroupPayload.class, HIGH);
     public static final RoutingKey<Void> MASTER_USER_SET_GROUP_REPLY = MASTER_USER_SET_GROUP.getReply(Void.class);
     public static final RoutingKey<ErrorPayload> MASTER_USER_SET_GROUP_ERROR = MASTER_USER_SET_NAME.getReply(ErrorPayload.class);
 
@@ -93,7 +98,7 @@ public enum RoutingKeys {
     public static final RoutingKey<Void> MASTER_GROUP_SET_NAME_REPLY = MASTER_GROUP_SET_NAME.getReply(Void.class);
     public static final RoutingKey<ErrorPayload> MASTER_GROUP_SET_NAME_ERROR = MASTER_GROUP_SET_NAME.getReply(ErrorPayload.class);
 
-    public static final RoutingKey<SetGroupTemplatePayload> MASTER_GROUP_SET_TEMPLATE = new RoutingKey<>(PREFIX_MASTER + "/group/set/template", SetGroupTemplatePayload.class);
+    public static final RoutingKey<SetGroupTemplatePayload> MASTER_GROUP_SET_TEMPLATE = new RoutingKey<>(PREFIX_MASTER + "/group/set/template", SetGroupTemplatePayload.class, HIGH);
     public static final RoutingKey<Void> MASTER_GROUP_SET_TEMPLATE_REPLY = MASTER_GROUP_SET_TEMPLATE.getReply(Void.class);
     public static final RoutingKey<ErrorPayload> MASTER_GROUP_SET_TEMPLATE_ERROR = MASTER_GROUP_SET_TEMPLATE.getReply(ErrorPayload.class);
 
@@ -141,19 +146,19 @@ public enum RoutingKeys {
     public static final RoutingKey<LightPayload> SLAVE_LIGHT_SET_REPLY = SLAVE_LIGHT_SET.getReply(LightPayload.class);
     public static final RoutingKey<ErrorPayload> SLAVE_LIGHT_SET_ERROR = SLAVE_LIGHT_SET.getReply(ErrorPayload.class);
 
-    public static final RoutingKey<LightPayload> APP_LIGHT_UPDATE = new RoutingKey<>(PREFIX_APP + "/light/update", LightPayload.class);
+    public static final RoutingKey<LightPayload> APP_LIGHT_UPDATE = new RoutingKey<>(PREFIX_APP + "/light/update", LightPayload.class, LOW);
     // END: Light
 
     // BEGIN: Door
-    public static final RoutingKey<DoorBellPayload> MASTER_DOOR_BELL_RING = new RoutingKey<>(PREFIX_MASTER + "/doorbell/ring", DoorBellPayload.class);
+    public static final RoutingKey<DoorBellPayload> MASTER_DOOR_BELL_RING = new RoutingKey<>(PREFIX_MASTER + "/doorbell/ring", DoorBellPayload.class, HIGH);
 
-    public static final RoutingKey<DoorStatusPayload> MASTER_DOOR_STATUS_UPDATE = new RoutingKey<>(PREFIX_MASTER + "/door/update", DoorStatusPayload.class);
+    public static final RoutingKey<DoorStatusPayload> MASTER_DOOR_STATUS_UPDATE = new RoutingKey<>(PREFIX_MASTER + "/door/update", DoorStatusPayload.class, LOW);
 
-    public static final RoutingKey<DoorPayload> MASTER_DOOR_UNLATCH = new RoutingKey<>(PREFIX_MASTER + "/door/unlatch", DoorPayload.class);
+    public static final RoutingKey<DoorPayload> MASTER_DOOR_UNLATCH = new RoutingKey<>(PREFIX_MASTER + "/door/unlatch", DoorPayload.class, HIGH);
     public static final RoutingKey<Void> MASTER_DOOR_UNLATCH_REPLY = MASTER_DOOR_UNLATCH.getReply(Void.class);
     public static final RoutingKey<ErrorPayload> MASTER_DOOR_UNLATCH_ERROR = MASTER_DOOR_UNLATCH.getReply(ErrorPayload.class);
 
-    public static final RoutingKey<DoorBlockPayload> MASTER_DOOR_BLOCK = new RoutingKey<>(PREFIX_MASTER + "/door/block", DoorBlockPayload.class);
+    public static final RoutingKey<DoorBlockPayload> MASTER_DOOR_BLOCK = new RoutingKey<>(PREFIX_MASTER + "/door/block", DoorBlockPayload.class, HIGH);
     public static final RoutingKey<DoorBlockPayload> MASTER_DOOR_BLOCK_REPLY = MASTER_DOOR_BLOCK.getReply(DoorBlockPayload.class);
     public static final RoutingKey<ErrorPayload> MASTER_DOOR_BLOCK_ERROR = MASTER_DOOR_BLOCK.getReply(ErrorPayload.class);
 
@@ -161,12 +166,12 @@ public enum RoutingKeys {
     public static final RoutingKey<DoorStatusPayload> MASTER_DOOR_GET_REPLY = MASTER_DOOR_GET.getReply(DoorStatusPayload.class);
     public static final RoutingKey<ErrorPayload> MASTER_DOOR_GET_ERROR = MASTER_DOOR_GET.getReply(ErrorPayload.class);
 
-    public static final RoutingKey<DoorPayload> SLAVE_DOOR_UNLATCH = new RoutingKey<>(PREFIX_SLAVE + "/door/unlatch", DoorPayload.class);
+    public static final RoutingKey<DoorPayload> SLAVE_DOOR_UNLATCH = new RoutingKey<>(PREFIX_SLAVE + "/door/unlatch", DoorPayload.class, HIGH);
     public static final RoutingKey<DoorPayload> SLAVE_DOOR_UNLATCH_REPLY = SLAVE_DOOR_UNLATCH.getReply(DoorPayload.class);
     public static final RoutingKey<ErrorPayload> SLAVE_DOOR_UNLATCH_ERROR = SLAVE_DOOR_UNLATCH.getReply(ErrorPayload.class);
 
-    public static final RoutingKey<DoorStatusPayload> APP_DOOR_STATUS_UPDATE = new RoutingKey<>(PREFIX_APP + "/door/update", DoorStatusPayload.class);
-    public static final RoutingKey<DoorBellPayload> APP_DOOR_RING = new RoutingKey<>(PREFIX_APP + "/door/ring", DoorBellPayload.class);
+    public static final RoutingKey<DoorStatusPayload> APP_DOOR_STATUS_UPDATE = new RoutingKey<>(PREFIX_APP + "/door/update", DoorStatusPayload.class, LOW);
+    public static final RoutingKey<DoorBellPayload> APP_DOOR_RING = new RoutingKey<>(PREFIX_APP + "/door/ring", DoorBellPayload.class, HIGH);
     // END: Door
 
     // BEGIN: Camera
@@ -178,7 +183,7 @@ public enum RoutingKeys {
     public static final RoutingKey<CameraPayload> SLAVE_CAMERA_GET_REPLY = SLAVE_CAMERA_GET.getReply(CameraPayload.class);
     public static final RoutingKey<ErrorPayload> SLAVE_CAMERA_GET_ERROR = SLAVE_CAMERA_GET.getReply(ErrorPayload.class);
 
-    public static final RoutingKey<CameraPayload> APP_CAMERA_BROADCAST = new RoutingKey<>(PREFIX_APP + "camera/broadcast", CameraPayload.class);
+    public static final RoutingKey<CameraPayload> APP_CAMERA_BROADCAST = new RoutingKey<>(PREFIX_APP + "camera/broadcast", CameraPayload.class, LOW);
     // END: Camera
 
     // BEGIN: Notification
@@ -197,12 +202,25 @@ public enum RoutingKeys {
     // BEGIN: Weather
     public static final RoutingKey<ClimatePayload> MASTER_REQUEST_WEATHER_INFO = new RoutingKey<>(PREFIX_MASTER + "/weatherinfo/request", ClimatePayload.class);
     public static final RoutingKey<ClimatePayload> MASTER_REQUEST_WEATHER_INFO_REPLY = MASTER_REQUEST_WEATHER_INFO.getReply(ClimatePayload.class);
-    public static final RoutingKey<ClimatePayload> MASTER_PUSH_WEATHER_INFO = new RoutingKey<>(PREFIX_MASTER + "/weatherinfo/push", ClimatePayload.class);
+    public static final RoutingKey<ClimatePayload> MASTER_PUSH_WEATHER_INFO = new RoutingKey<>(PREFIX_MASTER + "/weatherinfo/push", ClimatePayload.class, LOW);
     // END: Weather
 
-    public static final RoutingKey<SystemHealthPayload> MASTER_SYSTEM_HEALTH_CHECK = new RoutingKey<>(PREFIX_MASTER + "/systemhealth/check", SystemHealthPayload.class);
+    public static final RoutingKey<SystemHealthPayload> MASTER_SYSTEM_HEALTH_CHECK = new RoutingKey<>(PREFIX_MASTER + "/systemhealth/check", SystemHealthPayload.class, LOW);
 
     public static final RoutingKey<DeviceConnectedPayload> MASTER_DEVICE_CONNECTED = new RoutingKey<>(PREFIX_MASTER + "/device/connected", DeviceConnectedPayload.class);
 
     public static final RoutingKey<ModulesPayload> GLOBAL_MODULES_UPDATE = new RoutingKey<>(PREFIX_GLOBAL + "/modules/update", ModulesPayload.class);
+
+    // BEGIN: Batch
+    public static final RoutingKey<BatchPayload> GLOBAL_BATCH = new RoutingKey<>(PREFIX_GLOBAL + "/batch", BatchPayload.class);
+    public static final RoutingKey<BatchPayload> GLOBAL_BATCH_REPLY = GLOBAL_BATCH.getReply(BatchPayload.class);
+    public static final RoutingKey<ErrorPayload> GLOBAL_BATCH_ERROR = GLOBAL_BATCH.getReply(ErrorPayload.class);
+    // END: Batch
+
+    // BEGIN: Subscription
+    public static final RoutingKey<SubscriptionPayload> GLOBAL_SUBSCRIBE = new RoutingKey<>(PREFIX_GLOBAL + "/subscribe", SubscriptionPayload.class);
+    public static final RoutingKey<SubscriptionPayload> GLOBAL_SUBSCRIBE_REPLY = GLOBAL_SUBSCRIBE.getReply(SubscriptionPayload.class);
+    public static final RoutingKey<ErrorPayload> GLOBAL_SUBSCRIBE_ERROR = GLOBAL_SUBSCRIBE.getReply(ErrorPayload.class);
+    public static final RoutingKey<SubscriptionPayload> GLOBAL_UNSUBSCRIBE = new RoutingKey<>(PREFIX_GLOBAL + "/unsubscribe", SubscriptionPayload.class);
+    // END: Subscription
 }
@@ -0,0 +1,250 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.messaging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import de.ncoder.typedmap.Key;
+import de.unipassau.isl.evs.ssh.core.CoreConstants.SubscriptionConstants;
+import de.unipassau.isl.evs.ssh.core.container.Component;
+import de.unipassau.isl.evs.ssh.core.container.Container;
+import de.unipassau.isl.evs.ssh.core.handler.AbstractMessageHandler;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.ErrorPayload;
+import de.unipassau.isl.evs.ssh.core.messaging.payload.SubscriptionPayload;
+import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
+import de.unipassau.isl.evs.ssh.core.schedule.ExecutionServiceComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.GLOBAL_SUBSCRIBE;
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.GLOBAL_SUBSCRIBE_ERROR;
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.GLOBAL_SUBSCRIBE_REPLY;
+import static de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys.GLOBAL_UNSUBSCRIBE;
+
+/**
+ * Push model for Module state, replacing the periodic polling of e.g. {@link RoutingKeys#MASTER_LIGHT_GET}.
+ * <p>
+ * On the device holding the state, subscribers are registered by {@link RoutingKeys#GLOBAL_SUBSCRIBE} messages
+ * with a lease. The handler that changes the state calls {@link #publish(String, RoutingKey, Message)}, which sends
+ * the update to all subscribers with a valid lease at once. Leases that are not renewed expire, so subscribers that
+ * disconnected stop receiving updates at the latest when their lease ends. The holder can also call
+ * {@link #removeSubscriber(DeviceID)} as soon as it notices the connection to a subscriber is closed.
+ * <p>
+ * On the subscribing device, {@link #subscribe(DeviceID, String)} registers the interest in a Module. The subscription
+ * is renewed after half of its lease and sent again by {@link #resubscribe()} once the connection is re-established.
+ * <p>
+ * On the subscribing devices, the {@link de.unipassau.isl.evs.ssh.core.network.Client Client} registers a
+ * SubscriptionManager if the Container doesn't contain one yet. The device holding the state, i.e. the Master,
+ * has to register it together with its other Components.
+ */
+public class SubscriptionManager extends AbstractMessageHandler implements Component {
+    public static final Key<SubscriptionManager> KEY = new Key<>(SubscriptionManager.class);
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Holder side: the expiry of the lease of every subscriber, by Module name.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<DeviceID, Long>> subscribers = new ConcurrentHashMap<>();
+    /**
+     * Subscriber side: the Modules this device is interested in, by the ID of the device holding their state.
+     */
+    private final SetMultimap<DeviceID, String> subscriptions = HashMultimap.create();
+    private ScheduledFuture<?> renewal;
+
+    @Override
+    public RoutingKey[] getRoutingKeys() {
+        return new RoutingKey[]{GLOBAL_SUBSCRIBE, GLOBAL_SUBSCRIBE_REPLY, GLOBAL_SUBSCRIBE_ERROR, GLOBAL_UNSUBSCRIBE};
+    }
+
+    @Override
+    public void init(Container container) {
+        super.init(container);
+        renewal = container.require(ExecutionServiceComponent.KEY).scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                resubscribe();
+            }
+        }, SubscriptionConstants.DEFAULT_LEASE_MILLIS / 2, SubscriptionConstants.DEFAULT_LEASE_MILLIS / 2, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (renewal != null) {
+            renewal.cancel(false);
+            renewal = null;
+        }
+        subscribers.clear();
+        synchronized (subscriptions) {
+            subscriptions.clear();
+        }
+        super.destroy();
+    }
+
+    @Override
+    public void handle(Message.AddressedMessage message) {
+        if (GLOBAL_SUBSCRIBE.matches(message)) {
+            final SubscriptionPayload payload = GLOBAL_SUBSCRIBE.getPayload(message);
+            if (payload.getModuleName() == null || payload.getLeaseMillis() <= 0) {
+                sendReply(message, new Message(new ErrorPayload("Invalid subscription " + payload.getModuleName()
+                        + " with lease " + payload.getLeaseMillis() + "ms")));
+                return;
+            }
+            final long lease = Math.min(payload.getLeaseMillis(), SubscriptionConstants.MAX_LEASE_MILLIS);
+            addSubscriber(payload.getModuleName(), message.getFromID(), lease);
+            sendReply(message, new Message(new SubscriptionPayload(payload.getModuleName(), lease)));
+        } else if (GLOBAL_UNSUBSCRIBE.matches(message)) {
+            final SubscriptionPayload payload = GLOBAL_UNSUBSCRIBE.getPayload(message);
+            final ConcurrentMap<DeviceID, Long> moduleSubscribers = subscribers.get(payload.getModuleName());
+            if (moduleSubscribers != null) {
+                moduleSubscribers.remove(message.getFromID());
+            }
+        } else if (GLOBAL_SUBSCRIBE_REPLY.matches(message)) {
+            final SubscriptionPayload payload = GLOBAL_SUBSCRIBE_REPLY.getPayload(message);
+            logger.debug("Subscribed to " + payload.getModuleName() + " at " + message.getFromID()
+                    + " for " + payload.getLeaseMillis() + "ms");
+        } else if (GLOBAL_SUBSCRIBE_ERROR.matches(message)) {
+            logger.warn("Subscription rejected by " + message.getFromID(), GLOBAL_SUBSCRIBE_ERROR.getPayload(message));
+        } else {
+            invalidMessage(message);
+        }
+    }
+
+    private void addSubscriber(String moduleName, DeviceID subscriber, long leaseMillis) {
+        ConcurrentMap<DeviceID, Long> moduleSubscribers = subscribers.get(moduleName);
+        if (moduleSubscribers == null) {
+            final ConcurrentMap<DeviceID, Long> newSubscribers = new ConcurrentHashMap<>();
+            moduleSubscribers = subscribers.putIfAbsent(moduleName, newSubscribers);
+            if (moduleSubscribers == null) {
+                moduleSubscribers = newSubscribers;
+            }
+        }
+        moduleSubscribers.put(subscriber, System.currentTimeMillis() + leaseMillis);
+    }
+
+    /**
+     * Remove all subscriptions of the given device, e.g. because the connection to it was closed.
+     */
+    public void removeSubscriber(DeviceID subscriber) {
+        for (ConcurrentMap<DeviceID, Long> moduleSubscribers : subscribers.values()) {
+            moduleSubscribers.remove(subscriber);
+        }
+    }
+
+    /**
+     * @return the devices with a valid lease for the given Module, expired leases are removed
+     */
+    public Set<DeviceID> getSubscribers(String moduleName) {
+        final ConcurrentMap<DeviceID, Long> moduleSubscribers = subscribers.get(moduleName);
+        if (moduleSubscribers == null) {
+            return Collections.emptySet();
+        }
+        final long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<DeviceID, Long>> it = moduleSubscribers.entrySet().iterator(); it.hasNext(); ) {
+            if (it.next().getValue() < now) {
+                it.remove();
+            }
+        }
+        return Collections.unmodifiableSet(moduleSubscribers.keySet());
+    }
+
+    /**
+     * Send the update of the given Module to all its subscribers, serializing the payload only once.
+     *
+     * @return the sent messages, empty if the Module has no subscribers
+     * @see OutgoingRouter#sendToAll(java.util.Collection, RoutingKey, Message)
+     */
+    public List<Message.AddressedMessage> publish(String moduleName, RoutingKey routingKey, Message msg) {
+        final List<DeviceID> ids = new ArrayList<>(getSubscribers(moduleName));
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return requireComponent(OutgoingRouter.KEY).sendToAll(ids, routingKey, msg);
+    }
+
+    /**
+     * Subscribe to the updates of the given Module held by the given device.
+     * The subscription is renewed until {@link #unsubscribe(DeviceID, String)} is called.
+     */
+    public void subscribe(DeviceID holderID, String moduleName) {
+        synchronized (subscriptions) {
+            subscriptions.put(holderID, moduleName);
+        }
+        sendSubscription(holderID, moduleName);
+    }
+
+    /**
+     * Stop renewing the subscription and tell the holder to stop sending updates.
+     */
+    public void unsubscribe(DeviceID holderID, String moduleName) {
+        final boolean removed;
+        synchronized (subscriptions) {
+            removed = subscriptions.remove(holderID, moduleName);
+        }
+        if (removed) {
+            sendMessage(holderID, GLOBAL_UNSUBSCRIBE, new Message(new SubscriptionPayload(moduleName, 0)));
+        }
+    }
+
+    /**
+     * Send all subscriptions of this device again, renewing their leases.
+     * Called periodically and once the connection to the Master is established.
+     */
+    public void resubscribe() {
+        final List<Map.Entry<DeviceID, String>> entries;
+        synchronized (subscriptions) {
+            entries = new ArrayList<>(subscriptions.entries());
+        }
+        for (Map.Entry<DeviceID, String> entry : entries) {
+            sendSubscription(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void sendSubscription(DeviceID holderID, String moduleName) {
+        final OutgoingRouter router = getComponent(OutgoingRouter.KEY);
+        if (router == null || !router.isWritable(holderID)) {
+            // don't queue subscriptions while disconnected, they are sent again by resubscribe once connected
+            return;
+        }
+        try {
+            router.sendMessage(holderID, GLOBAL_SUBSCRIBE,
+                    new Message(new SubscriptionPayload(moduleName, SubscriptionConstants.DEFAULT_LEASE_MILLIS)));
+        } catch (RuntimeException e) {
+            logger.warn("Could not subscribe to " + moduleName + " at " + holderID, e);
+        }
+    }
+}
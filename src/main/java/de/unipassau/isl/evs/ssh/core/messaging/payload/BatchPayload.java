@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.messaging.payload;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.unipassau.isl.evs.ssh.core.messaging.RoutingKey;
+
+/**
+ * Payload carrying many (RoutingKey, payload) entries in a single message, so that e.g. the state of all Modules
+ * can be requested with a single round trip. Sent to {@link de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys#GLOBAL_BATCH},
+ * the entries are dispatched on the receiver like individual messages. The reply is a BatchPayload with one entry
+ * per request entry in the same order, containing the reply to that entry or an {@link ErrorPayload}.
+ *
+ * @see de.unipassau.isl.evs.ssh.core.messaging.BatchHandler
+ */
+public class BatchPayload implements MessagePayload {
+    private final List<Entry> entries;
+
+    public BatchPayload() {
+        this(new ArrayList<Entry>());
+    }
+
+    public BatchPayload(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Add an entry for the given RoutingKey.
+     *
+     * @throws IllegalArgumentException if the payload doesn't match the RoutingKey
+     */
+    public <T extends MessagePayload> BatchPayload add(RoutingKey<T> routingKey, T payload) {
+        if (!routingKey.getPayloadClass().isInstance(payload)) {
+            throw new IllegalArgumentException("Payload " + payload + " does not match routing key " + routingKey);
+        }
+        entries.add(new Entry(routingKey.getKey(), payload));
+        return this;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the reply to the entry with the given index from a batch reply.
+     *
+     * @throws ErrorPayload if the receiver replied with an ErrorPayload to the entry
+     * @throws ClassCastException if the reply payload doesn't match the RoutingKey
+     */
+    public <T> T getReply(int index, RoutingKey<T> replyKey) throws ErrorPayload {
+        final Entry entry = entries.get(index);
+        if (entry.payload instanceof ErrorPayload) {
+            throw (ErrorPayload) entry.payload;
+        }
+        return replyKey.getPayloadClass().cast(entry.payload);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchPayload" + entries;
+    }
+
+    /**
+     * A single entry of a BatchPayload.
+     */
+    public static class Entry implements Serializable {
+        private final String routingKey;
+        private final MessagePayload payload;
+
+        public Entry(String routingKey, MessagePayload payload) {
+            this.routingKey = routingKey;
+            this.payload = payload;
+        }
+
+        public String getRoutingKey() {
+            return routingKey;
+        }
+
+        public MessagePayload getPayload() {
+            return payload;
+        }
+
+        public boolean isError() {
+            return payload instanceof ErrorPayload;
+        }
+
+        @Override
+        public String toString() {
+            return routingKey + "=" + payload;
+        }
+    }
+}
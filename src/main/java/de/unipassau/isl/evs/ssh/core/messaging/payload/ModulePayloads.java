@@ -0,0 +1,66 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.messaging.payload;
+
+import de.unipassau.isl.evs.ssh.core.database.dto.Module;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Utility methods for payloads that refer to a single {@link Module}.
+ */
+public enum ModulePayloads {
+    ;
+
+    /**
+     * @return the name of the Module the payload refers to or {@code null} if the payload doesn't refer to a single Module.
+     */
+    @Nullable
+    public static String getModuleName(@Nullable Object payload) {
+        if (payload instanceof DoorPayload) {
+            return ((DoorPayload) payload).getModuleName();
+        } else if (payload instanceof LightPayload) {
+            return getName(((LightPayload) payload).getModule());
+        } else if (payload instanceof ClimatePayload) {
+            return getName(((ClimatePayload) payload).getModule());
+        } else if (payload instanceof CameraPayload) {
+            return ((CameraPayload) payload).getModuleName();
+        } else if (payload instanceof DoorBellPayload) {
+            return ((DoorBellPayload) payload).getModuleName();
+        } else if (payload instanceof SystemHealthPayload) {
+            return getName(((SystemHealthPayload) payload).getModule());
+        } else if (payload instanceof ModifyModulePayload) {
+            return getName(((ModifyModulePayload) payload).getModule());
+        } else {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String getName(@Nullable Module module) {
+        return module != null ? module.getName() : null;
+    }
+}
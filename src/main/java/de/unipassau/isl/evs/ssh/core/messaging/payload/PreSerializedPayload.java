@@ -0,0 +1,130 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.messaging.payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamException;
+
+/**
+ * Wraps a payload that has already been serialized, so that a message sent to many devices only needs to serialize
+ * its payload once. When serialized, only the bytes of the wrapped payload are written. When deserialized, it is
+ * replaced by the wrapped payload, so that the receiver never sees this wrapper.
+ *
+ * @see de.unipassau.isl.evs.ssh.core.messaging.OutgoingRouter#sendToAll(java.util.Collection, de.unipassau.isl.evs.ssh.core.messaging.RoutingKey, de.unipassau.isl.evs.ssh.core.messaging.Message)
+ */
+public final class PreSerializedPayload implements MessagePayload {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The serialized payload, shared read-only by all messages containing this wrapper.
+     */
+    private transient byte[] data;
+
+    private PreSerializedPayload(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Serialize the given payload once.
+     *
+     * @throws IOException if the payload is not serializable
+     */
+    public static PreSerializedPayload serialize(MessagePayload payload) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(payload);
+        }
+        return new PreSerializedPayload(bytes.toByteArray());
+    }
+
+    /**
+     * @return the size of the serialized payload in bytes
+     */
+    public int getSerializedSize() {
+        return data.length;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new InvalidObjectException("Negative payload length " + length);
+        }
+        data = new byte[length];
+        in.readFully(data);
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        try (ObjectInputStream in = new PayloadInputStream(new ByteArrayInputStream(data))) {
+            final Object payload = in.readObject();
+            if (!(payload instanceof MessagePayload)) {
+                throw new InvalidObjectException("Pre-serialized payload of type " +
+                        (payload != null ? payload.getClass() : "null") + " is no MessagePayload");
+            }
+            return payload;
+        } catch (IOException | ClassNotFoundException e) {
+            final InvalidObjectException ex = new InvalidObjectException("Could not read pre-serialized payload");
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PreSerializedPayload{" + data.length + "b}";
+    }
+
+    /**
+     * Resolves classes using the ClassLoader that loaded the payload classes.
+     */
+    private static class PayloadInputStream extends ObjectInputStream {
+        private PayloadInputStream(ByteArrayInputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), false, PreSerializedPayload.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -26,22 +26,29 @@
 
 package de.unipassau.isl.evs.ssh.core.network;
 
+import com.google.common.net.InetAddresses;
 import de.ncoder.typedmap.Key;
+import de.unipassau.isl.evs.ssh.core.CoreConfiguration;
 import de.unipassau.isl.evs.ssh.core.CoreConstants;
 import de.unipassau.isl.evs.ssh.core.container.AbstractComponent;
 import de.unipassau.isl.evs.ssh.core.container.Container;
 import de.unipassau.isl.evs.ssh.core.keyvaluestore.SimpleKeyValueStore;
 import de.unipassau.isl.evs.ssh.core.messaging.IncomingDispatcher;
+import de.unipassau.isl.evs.ssh.core.messaging.OutgoingRouter;
+import de.unipassau.isl.evs.ssh.core.messaging.SubscriptionManager;
+import de.unipassau.isl.evs.ssh.core.network.handler.OutboundLaneHandler;
+import de.unipassau.isl.evs.ssh.core.network.handler.TimeoutHandler;
 import de.unipassau.isl.evs.ssh.core.schedule.ExecutionServiceComponent;
 import de.unipassau.isl.evs.ssh.core.sec.DeviceConnectInformation;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelOption;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
 import io.netty.util.ResourceLeakDetector;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.FutureListener;
@@ -53,12 +60,28 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.ATTR_HANDSHAKE_FINISHED;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DEFAULT_CONNECTION_MIGRATION;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DEFAULT_CONNECT_RACING;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DEFAULT_CONNECT_STAGGER_MILLIS;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DEFAULT_LOCAL_PORT;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.MAX_SESSION_TICKET_LIFETIME_MILLIS;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.MIGRATION_GRACE_MILLIS;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DEFAULT_RECONNECT_BASE_MILLIS;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DEFAULT_RECONNECT_MAX_MILLIS;
 import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.ATTR_LOCAL_CONNECTION;
 
 /**
@@ -81,14 +104,14 @@ public class Client extends AbstractComponent {
     private static final String TAG = Client.class.getSimpleName();
 
     /**
-     * If this number of milliseconds between two disconnects is exceeded, they are deemed as unrelated
-     */
-    private static final long CLIENT_MILLIS_BETWEEN_DISCONNECTS = TimeUnit.SECONDS.toMillis(10);
-    /**
-     * If there are more disconnects within {@link #CLIENT_MILLIS_BETWEEN_DISCONNECTS} than this number,
+     * If there are more disconnects without successful handshake in between than this number,
      * the client should retry connecting with the explicitly set master or try UDP discovery.
      */
     private static final int CLIENT_MAX_DISCONNECTS = 5;
+    /**
+     * The number of addresses found by UDP discovery that are kept as candidates for connection racing.
+     */
+    private static final int MAX_DISCOVERED_ADDRESSES = 4;
     /**
      * An Android BroadcastReceiver that is notified once the Phone connects to or is disconnected from a WiFi network.
      */
@@ -115,19 +138,40 @@ public class Client extends AbstractComponent {
      * The channel listening for incoming TCP connections on the port of the client.
      * Use {@link ChannelFuture#sync()} to wait for client startup.
      */
-    private ChannelFuture channelFuture;
+    private volatile ChannelFuture channelFuture;
     /**
      * Boolean indicating if the client connection is active.
      */
     private boolean isActive;
-    /**
-     * Int used to calculate the time between the last and the current timeout.
-     */
-    private long lastDisconnect = 0;
     /**
      * Int that saves how many timeouts happened in a row.
      */
     private int disconnectsInARow = 0;
+    /**
+     * The delays between the reconnect attempts, created in {@link #init(Container)}.
+     */
+    private ReconnectBackoff backoff;
+    /**
+     * The SubscriptionManager registered by {@link #init(Container)} if the Container didn't provide one.
+     */
+    private SubscriptionManager subscriptionManager;
+    /**
+     * The pending reconnect scheduled by {@link #channelClosed(Channel)}.
+     */
+    private ScheduledFuture<?> reconnectFuture;
+    /**
+     * The running connection race, see {@link #raceConnect(List)}.
+     */
+    private ConnectionRace race;
+    /**
+     * The session ticket issued by the Master in the last handshake, see {@link #takeSessionTicket()}.
+     */
+    private byte[] sessionTicket;
+    private long sessionTicketExpiry;
+    /**
+     * Addresses of the Master recently found by UDP discovery, least recently found first.
+     */
+    private final Set<InetSocketAddress> discoveredAddresses = new LinkedHashSet<>();
 
     private final List<ClientConnectionListener> listeners = new ArrayList<>();
 
@@ -146,6 +190,18 @@ public class Client extends AbstractComponent {
             }
         });
         ResourceLeakDetector.setLevel(CoreConstants.NettyConstants.RESOURCE_LEAK_DETECTION);
+        final CoreConfiguration config = container.get(CoreConfiguration.KEY);
+        if (config != null) {
+            backoff = new ReconnectBackoff(config.getReconnectBaseMillis(), config.getReconnectMaxMillis());
+        } else {
+            backoff = new ReconnectBackoff(DEFAULT_RECONNECT_BASE_MILLIS, DEFAULT_RECONNECT_MAX_MILLIS);
+        }
+        // The subscriptions are renewed by this Client on every reconnect, so make sure there is someone to hold them
+        if (!container.isRegistered(SubscriptionManager.KEY) && container.isRegistered(IncomingDispatcher.KEY)
+                && container.isRegistered(ExecutionServiceComponent.KEY)) {
+            subscriptionManager = new SubscriptionManager();
+            container.register(SubscriptionManager.KEY, subscriptionManager);
+        }
         // And try to connect
         isActive = true;
         initClient();
@@ -163,6 +219,9 @@ public class Client extends AbstractComponent {
         if (isChannelOpen()) {
             logger.warn("Not starting Client that is already connected");
             return;
+        } else if (race != null) {
+            logger.warn("Not starting Client that is already racing connections");
+            return;
         } else {
             // Close channels open from previous connections
             if (channelFuture != null && channelFuture.channel() != null) {
@@ -196,6 +255,12 @@ public class Client extends AbstractComponent {
      * connects to the found address or starts UDP discovery.
      */
     private void attemptConnectClient() {
+        final CoreConfiguration config = getComponent(CoreConfiguration.KEY);
+        if (config != null ? config.isConnectRacingEnabled() : DEFAULT_CONNECT_RACING) {
+            attemptRaceConnectClient();
+            return;
+        }
+
         // Read the previous host and port from the shared preferences
         InetSocketAddress address = getLastAddress();
 
@@ -204,7 +269,6 @@ public class Client extends AbstractComponent {
         if (address != null && !shouldReconnectTCP) {
             // if too many attempts failed with the last address, retry with the configured address
             editPrefs().setLastAddress(null);
-            lastDisconnect = 0;
             disconnectsInARow = 0;
             shouldReconnectTCP = true;
             address = getConfiguredAddress();
@@ -212,6 +276,10 @@ public class Client extends AbstractComponent {
             // if no previous address is found, use the configured address
             address = getConfiguredAddress();
         }
+        if (address == null) {
+            // try the address the Master was last discovered at before broadcasting
+            address = requireComponent(UDPDiscoveryClient.KEY).getCachedAddress();
+        }
 
         if (address != null && shouldReconnectTCP) {
             connectClient(address);
@@ -226,12 +294,30 @@ public class Client extends AbstractComponent {
     }
 
     /**
-     * A connection attempt should be made if no more than CLIENT_MAX_DISCONNECTS attempts have been made
-     * with the last attempt having been made no more than CLIENT_MILLIS_BETWEEN_DISCONNECTS ago.
+     * Race connections to all {@link #getCandidateAddresses() candidate addresses} and additionally search for further
+     * addresses using UDP discovery if no address is known or too many connection attempts have failed.
+     */
+    private void attemptRaceConnectClient() {
+        final List<InetSocketAddress> candidates = getCandidateAddresses();
+        if (candidates.isEmpty() || !shouldReconnectTCP()) {
+            if (candidates.isEmpty()) {
+                logger.warn("No master known, starting UDP discovery");
+            } else {
+                logger.warn("Too many disconnects from " + candidates + ", also trying UDP discovery");
+            }
+            requireComponent(UDPDiscoveryClient.KEY).startDiscovery(0);
+        }
+        if (!candidates.isEmpty()) {
+            raceConnect(candidates);
+        }
+    }
+
+    /**
+     * A connection attempt should be made if no more than CLIENT_MAX_DISCONNECTS attempts have failed
+     * since the last successful handshake.
      */
     private boolean shouldReconnectTCP() {
-        return disconnectsInARow < CLIENT_MAX_DISCONNECTS
-                || System.currentTimeMillis() - lastDisconnect > CLIENT_MILLIS_BETWEEN_DISCONNECTS;
+        return disconnectsInARow < CLIENT_MAX_DISCONNECTS;
     }
 
     /**
@@ -242,19 +328,8 @@ public class Client extends AbstractComponent {
      * switches to searching the master via UDP discovery using the {@link UDPDiscoveryClient}.
      */
     private void connectClient(InetSocketAddress address) {
-        logger.info("Client connecting to " + address);
-        notifyClientConnecting(address.getHostString(), address.getPort());
-
-        // TCP Connection
-        Bootstrap b = new Bootstrap()
-                .group(requireComponent(ExecutionServiceComponent.KEY))
-                .channel(NioSocketChannel.class)
-                .handler(getHandshakeHandler())
-                .option(ChannelOption.SO_KEEPALIVE, true)
-                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) TimeUnit.SECONDS.toMillis(5));
-
         // Wait for the start of the client
-        channelFuture = b.connect(address);
+        channelFuture = connect(address);
         channelFuture.addListener(new ChannelFutureListener() {
             /**
              * Called once the operation completes, either because the connect was successful or because of an error.
@@ -282,6 +357,118 @@ public class Client extends AbstractComponent {
         });
     }
 
+    /**
+     * Start a TCP connection to the given address, using {@link #getHandshakeHandler()} for the new channel.
+     */
+    private ChannelFuture connect(InetSocketAddress address) {
+        logger.info("Client connecting to " + address);
+        notifyClientConnecting(address.getHostString(), address.getPort());
+
+        // TCP Connection
+        final ExecutionServiceComponent executionService = requireComponent(ExecutionServiceComponent.KEY);
+        final NetworkSettings settings = getNetworkSettings();
+        final ChannelHandler handshakeHandler = getHandshakeHandler();
+        Bootstrap b = new Bootstrap()
+                .group(executionService)
+                .channel(executionService.getTransport().getSocketChannelClass())
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        settings.applyTo(ch);
+                        ch.pipeline().addLast(handshakeHandler);
+                    }
+                });
+        settings.applyTo(b);
+        return b.connect(address);
+    }
+
+    /**
+     * @return the socket and buffer options to apply to all Channels
+     */
+    NetworkSettings getNetworkSettings() {
+        final CoreConfiguration config = getComponent(CoreConfiguration.KEY);
+        return config != null ? config.getNetworkSettings() : NetworkSettings.Profile.DEFAULT.getSettings();
+    }
+
+    /**
+     * @return all known addresses of the Master, i.e. the last, the configured and the recently discovered addresses,
+     * with addresses in the local network first
+     */
+    List<InetSocketAddress> getCandidateAddresses() {
+        final Set<InetSocketAddress> candidates = new LinkedHashSet<>();
+        addCandidate(candidates, getLastAddress());
+        addCandidate(candidates, getConfiguredAddress());
+        addCandidate(candidates, requireComponent(UDPDiscoveryClient.KEY).getCachedAddress());
+        synchronized (discoveredAddresses) {
+            for (InetSocketAddress address : discoveredAddresses) {
+                addCandidate(candidates, address);
+            }
+        }
+        final List<InetSocketAddress> sorted = new ArrayList<>(candidates);
+        // stable sort, so that the last address is still tried first among the local ones
+        Collections.sort(sorted, new Comparator<InetSocketAddress>() {
+            @Override
+            public int compare(InetSocketAddress lhs, InetSocketAddress rhs) {
+                return Boolean.compare(isLocalAddress(rhs), isLocalAddress(lhs));
+            }
+        });
+        return sorted;
+    }
+
+    private static void addCandidate(Set<InetSocketAddress> candidates, @Nullable InetSocketAddress address) {
+        if (address != null) {
+            // compare resolved and unresolved addresses by host and port only
+            candidates.add(InetSocketAddress.createUnresolved(address.getHostString(), address.getPort()));
+        }
+    }
+
+    /**
+     * @return {@code true} if the address is the local port of the Master or an IP address from the local network
+     */
+    static boolean isLocalAddress(InetSocketAddress address) {
+        if (address.getPort() == DEFAULT_LOCAL_PORT) {
+            return true;
+        }
+        InetAddress ip = address.getAddress();
+        if (ip == null && InetAddresses.isInetAddress(address.getHostString())) {
+            ip = InetAddresses.forString(address.getHostString());
+        }
+        return ip != null && (ip.isSiteLocalAddress() || ip.isLinkLocalAddress() || ip.isLoopbackAddress());
+    }
+
+    /**
+     * Connect to all given addresses at once, each one started {@link CoreConfiguration#getConnectStaggerMillis()}
+     * after the previous one or as soon as all previous attempts failed.
+     * The first connection to complete the handshake is {@link #claimConnection(Channel) claimed} and used,
+     * all other connections are closed.
+     */
+    private synchronized void raceConnect(List<InetSocketAddress> candidates) {
+        final CoreConfiguration config = getComponent(CoreConfiguration.KEY);
+        final long stagger = config != null ? config.getConnectStaggerMillis() : DEFAULT_CONNECT_STAGGER_MILLIS;
+        logger.info("Client racing connections to " + candidates + " with " + stagger + "ms stagger");
+        race = new ConnectionRace(candidates, stagger, false);
+        race.startNext();
+    }
+
+    /**
+     * Called by the {@link ClientHandshakeHandler} once the handshake on the given channel was successful.
+     *
+     * @return {@code true} if the channel is used as connection to the Master, {@code false} if another connection
+     * was established first and the channel must be closed
+     */
+    synchronized boolean claimConnection(Channel channel) {
+        if (channelFuture != null && channelFuture.channel() == channel) {
+            return true;
+        }
+        return race != null && race.claim(channel);
+    }
+
+    private void cancelRace() {
+        if (race != null) {
+            race.cancel();
+        }
+    }
+
     /**
      * HandshakeHandler can be changed or mocked for testing
      *
@@ -306,27 +493,27 @@ public class Client extends AbstractComponent {
 
     /**
      * Called once the TCP connection is closed or if it couldn't be established at all.
-     * Increments the disconnect counter and tries to re-establish the connection.
+     * Increments the disconnect counter and schedules a reconnect after the delay given by the {@link ReconnectBackoff}.
      */
     protected synchronized void channelClosed(Channel channel) {
         if (this.channelFuture != null && this.channelFuture.channel() != channel) {
             return; //channel has already been exchanged by new one, don't start another client
         }
+        if (reconnectFuture != null && !reconnectFuture.isDone()) {
+            return; //a failed connect also closes the channel, only schedule one reconnect
+        }
         notifyClientDisconnected();
         if (isActive) {
-            long time = System.currentTimeMillis();
-            final long diff = time - lastDisconnect;
-            if (lastDisconnect <= 0 || diff <= CLIENT_MILLIS_BETWEEN_DISCONNECTS) {
-                // if the last disconnect was in the near past, increment the counter of disconnects in a row
-                lastDisconnect = time;
-                disconnectsInARow++;
-                logger.warn(disconnectsInARow + ". disconnect within the last " + diff + "ms, retrying");
-            } else {
-                // otherwise just retry
-                lastDisconnect = time;
-                logger.info("First disconnect recently, retrying");
-            }
-            initClient();
+            disconnectsInARow++;
+            final long delay = backoff.nextDelayMillis();
+            logger.info(disconnectsInARow + ". disconnect since the last successful connection, retrying in " + delay + "ms");
+            notifyReconnectScheduled(backoff.getAttempts(), delay);
+            reconnectFuture = requireComponent(ExecutionServiceComponent.KEY).schedule(new Runnable() {
+                @Override
+                public void run() {
+                    initClient();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
         } else {
             logger.info("Client disconnected, but not restarting because destroy() has been called");
         }
@@ -346,6 +533,13 @@ public class Client extends AbstractComponent {
      */
     public void onMasterFound(InetSocketAddress address, String token) {
         logger.info("discovery successful, found " + address + " with token " + token);
+        synchronized (discoveredAddresses) {
+            discoveredAddresses.remove(address);
+            discoveredAddresses.add(address);
+            if (discoveredAddresses.size() > MAX_DISCOVERED_ADDRESSES) {
+                discoveredAddresses.remove(discoveredAddresses.iterator().next());
+            }
+        }
         final PrefEditor editor = editPrefs().setLastAddress(address);
         if (token != null) {
             editor.setActiveRegistrationToken(token);
@@ -359,10 +553,19 @@ public class Client extends AbstractComponent {
         addressChanged(address);
     }
 
-    private void addressChanged(InetSocketAddress address) {
-        lastDisconnect = 0;
+    private synchronized void addressChanged(InetSocketAddress address) {
         disconnectsInARow = 0;
+        // connect to the new address right away
+        backoff.reset();
+        cancelReconnect();
+        cancelRace(); // restart the race including the new address
         notifyMasterFound();
+        if (isConnectionEstablished() && isMigrationEnabled()) {
+            if (!isConnectedTo(address)) {
+                migrate(address);
+            }
+            return;
+        }
         if (!address.equals(getAddress()) && channelFuture != null) {
             logger.info("Found new address, closing old connection " + channelFuture.channel());
             channelFuture.channel().close(); //close the current connection if a new address was found
@@ -370,6 +573,72 @@ public class Client extends AbstractComponent {
         initClient();
     }
 
+    private boolean isMigrationEnabled() {
+        final CoreConfiguration config = getComponent(CoreConfiguration.KEY);
+        return config != null ? config.isConnectionMigrationEnabled() : DEFAULT_CONNECTION_MIGRATION;
+    }
+
+    /**
+     * @return {@code true} if the current connection goes to the given host and port
+     */
+    private boolean isConnectedTo(InetSocketAddress address) {
+        final Channel channel = getChannel();
+        if (channel == null || !(channel.remoteAddress() instanceof InetSocketAddress)) {
+            return false;
+        }
+        final InetSocketAddress remote = (InetSocketAddress) channel.remoteAddress();
+        return remote.getPort() == address.getPort() && (remote.getHostString().equals(address.getHostString())
+                || (remote.getAddress() != null && remote.getAddress().getHostAddress().equals(address.getHostString())));
+    }
+
+    /**
+     * Make-before-break migration of the established connection to a new address:
+     * a connection to the new address is opened and authenticated while the current connection is still used.
+     * Once its handshake is finished, it is {@link #claimConnection(Channel) claimed} and used for all further messages
+     * and the old connection is {@link #drainAndClose(Channel) drained and closed}.
+     * If the new connection fails, the current connection is kept.
+     */
+    private synchronized void migrate(InetSocketAddress address) {
+        logger.info("Migrating connection " + getChannel() + " to " + address);
+        race = new ConnectionRace(Collections.singletonList(address), 0, true);
+        race.startNext();
+    }
+
+    /**
+     * Write all messages still waiting to be sent on the old connection, then close it after
+     * {@link CoreConstants.NettyConstants#MIGRATION_GRACE_MILLIS} so that replies to requests already sent on it
+     * can still be received.
+     */
+    private void drainAndClose(final Channel old) {
+        old.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                final ChannelPipeline pipeline = old.pipeline();
+                // the old connection must no longer influence the writability of the connection to the Master
+                if (pipeline.get("WritabilityHandler") != null) {
+                    pipeline.remove("WritabilityHandler");
+                }
+                // passes all waiting messages on to be written
+                if (pipeline.get(OutboundLaneHandler.class) != null) {
+                    pipeline.remove(OutboundLaneHandler.class);
+                }
+                // completes once everything written before was sent
+                old.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        logger.debug("Old connection " + old + " drained, closing it in " + MIGRATION_GRACE_MILLIS + "ms");
+                        old.eventLoop().schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                old.close();
+                            }
+                        }, MIGRATION_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                });
+            }
+        });
+    }
+
     //Internal Getters//////////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
@@ -378,14 +647,34 @@ public class Client extends AbstractComponent {
     public void destroy() {
         logger.debug("stopClient");
         isActive = false;
+        cancelReconnect();
+        cancelRace();
         if (channelFuture != null && channelFuture.channel() != null) {
             channelFuture.channel().close();
         }
+        if (subscriptionManager != null) {
+            getContainer().unregister(subscriptionManager);
+            subscriptionManager = null;
+        }
         super.destroy();
     }
 
+    private void cancelReconnect() {
+        if (reconnectFuture != null) {
+            reconnectFuture.cancel(false);
+            reconnectFuture = null;
+        }
+    }
+
     //Public Getters////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * @return the backoff used for reconnecting, holding the number of attempts since the last successful connection
+     */
+    public ReconnectBackoff getReconnectBackoff() {
+        return backoff;
+    }
+
     /**
      * Channel for the {@link IncomingDispatcher} and the {@link ClientOutgoingRouter}
      */
@@ -427,6 +716,46 @@ public class Client extends AbstractComponent {
         return isConnectionEstablished() && channelFuture.channel().attr(ATTR_LOCAL_CONNECTION).get() == Boolean.TRUE;
     }
 
+    /**
+     * @return the round trip time estimated from the pings on the connection to the Master or {@code null} if the
+     * connection is not established
+     * @see TimeoutHandler
+     */
+    @Nullable
+    public RoundTripTimeEstimator getRoundTripTimeEstimator() {
+        final Channel channel = getChannel();
+        return channel != null && isConnectionEstablished() ? TimeoutHandler.getRoundTripTime(channel) : null;
+    }
+
+    /**
+     * @return the smoothed round trip time to the Master in milliseconds or {@code -1} if it is not known yet
+     */
+    public long getRoundTripTime() {
+        final RoundTripTimeEstimator estimator = getRoundTripTimeEstimator();
+        return estimator != null ? estimator.getSmoothedMillis() : -1;
+    }
+
+    /**
+     * Store the session ticket issued by the Master, so that the next connection can skip the CHAP.
+     * The ticket is only kept in memory and for at most {@link CoreConstants.NettyConstants#MAX_SESSION_TICKET_LIFETIME_MILLIS}.
+     */
+    synchronized void setSessionTicket(byte[] ticket, long lifetimeMillis) {
+        sessionTicket = ticket;
+        sessionTicketExpiry = System.currentTimeMillis() + Math.min(lifetimeMillis, MAX_SESSION_TICKET_LIFETIME_MILLIS);
+    }
+
+    /**
+     * Remove the session ticket, as the Master only accepts it once.
+     *
+     * @return the ticket from the last handshake or {@code null} if there is none or it expired
+     */
+    @Nullable
+    synchronized byte[] takeSessionTicket() {
+        final byte[] ticket = sessionTicket;
+        sessionTicket = null;
+        return ticket != null && System.currentTimeMillis() < sessionTicketExpiry ? ticket : null;
+    }
+
     //Shared Preferences////////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
@@ -601,6 +930,19 @@ public class Client extends AbstractComponent {
     }
 
     void notifyClientConnected() {
+        synchronized (this) {
+            disconnectsInARow = 0;
+            backoff.reset();
+        }
+        // send the messages queued while disconnected before any listener can send new ones
+        final OutgoingRouter router = getComponent(OutgoingRouter.KEY);
+        if (router instanceof ClientOutgoingRouter) {
+            ((ClientOutgoingRouter) router).flushOfflineQueue();
+        }
+        final SubscriptionManager subscriptions = getComponent(SubscriptionManager.KEY);
+        if (subscriptions != null) {
+            subscriptions.resubscribe();
+        }
         for (ClientConnectionListener listener : listeners) {
             listener.onClientConnected();
         }
@@ -612,9 +954,138 @@ public class Client extends AbstractComponent {
         }
     }
 
+    private void notifyReconnectScheduled(int attempt, long delayMillis) {
+        for (ClientConnectionListener listener : listeners) {
+            if (listener instanceof ReconnectListener) {
+                ((ReconnectListener) listener).onReconnectScheduled(attempt, delayMillis);
+            }
+        }
+    }
+
     void notifyClientRejected(@Nullable String message) {
         for (ClientConnectionListener listener : listeners) {
             listener.onClientRejected(message);
         }
     }
+
+    /**
+     * Concurrent connection attempts to multiple addresses of the Master, see {@link #raceConnect(List)}.
+     * All methods must be called while holding the lock of the Client.
+     */
+    private class ConnectionRace {
+        private final List<InetSocketAddress> candidates;
+        private final long staggerMillis;
+        /**
+         * Whether an established connection is migrated, which is kept if all attempts fail.
+         */
+        private final boolean migration;
+        private final Map<Channel, InetSocketAddress> attempts = new HashMap<>();
+        private int started = 0;
+        private boolean finished = false;
+
+        private ConnectionRace(List<InetSocketAddress> candidates, long staggerMillis, boolean migration) {
+            this.candidates = candidates;
+            this.staggerMillis = staggerMillis;
+            this.migration = migration;
+        }
+
+        private void startNext() {
+            if (finished || started >= candidates.size() || !isActive) {
+                return;
+            }
+            final InetSocketAddress address = candidates.get(started++);
+            final ChannelFuture future = connect(address);
+            attempts.put(future.channel(), address);
+            future.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (!future.isSuccess()) {
+                        logger.debug("Racing connect to " + address + " failed");
+                        attemptFailed(future.channel());
+                    }
+                }
+            });
+            future.channel().closeFuture().addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    attemptFailed(future.channel());
+                }
+            });
+            if (started < candidates.size()) {
+                requireComponent(ExecutionServiceComponent.KEY).schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (Client.this) {
+                            startNext();
+                        }
+                    }
+                }, staggerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void attemptFailed(Channel channel) {
+            synchronized (Client.this) {
+                if (finished || attempts.remove(channel) == null) {
+                    return;
+                }
+                if (!attempts.isEmpty()) {
+                    return;
+                }
+                if (started < candidates.size()) {
+                    // don't wait for the stagger if all running attempts failed
+                    startNext();
+                } else if (migration) {
+                    logger.info("Migrating to " + candidates + " failed, keeping connection " + getChannel());
+                    finished = true;
+                    race = null;
+                } else {
+                    logger.info("All racing connects to " + candidates + " failed");
+                    finished = true;
+                    race = null;
+                    channelClosed(channel);
+                }
+            }
+        }
+
+        private boolean claim(Channel channel) {
+            final InetSocketAddress address = attempts.remove(channel);
+            if (finished || address == null) {
+                return false;
+            }
+            logger.info("Racing connect to " + address + " won, closing " + attempts.size() + " other connections");
+            finished = true;
+            race = null;
+            for (Channel other : attempts.keySet()) {
+                other.close();
+            }
+            attempts.clear();
+            final ChannelFuture previous = channelFuture;
+            channelFuture = channel.newSucceededFuture();
+            if (migration && previous != null && previous.channel() != channel) {
+                logger.info("Migrated connection from " + previous.channel() + " to " + channel);
+                drainAndClose(previous.channel());
+            }
+            channel.closeFuture().addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    logger.debug("Channel closed");
+                    channelClosed(future.channel());
+                }
+            });
+            if (!address.equals(getLastAddress())) {
+                editPrefs().setLastAddress(address);
+            }
+            requireComponent(UDPDiscoveryClient.KEY).stopDiscovery();
+            return true;
+        }
+
+        private void cancel() {
+            finished = true;
+            race = null;
+            for (Channel channel : attempts.keySet()) {
+                channel.close();
+            }
+            attempts.clear();
+        }
+    }
 }
@@ -26,12 +26,17 @@
 
 package de.unipassau.isl.evs.ssh.core.network;
 
+import de.unipassau.isl.evs.ssh.core.CoreConfiguration;
 import de.unipassau.isl.evs.ssh.core.container.Container;
+import de.unipassau.isl.evs.ssh.core.messaging.ConflationKey;
 import de.unipassau.isl.evs.ssh.core.messaging.IncomingDispatcher;
+import de.unipassau.isl.evs.ssh.core.messaging.OutgoingRouter;
 import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
 import de.unipassau.isl.evs.ssh.core.naming.NamingManager;
 import de.unipassau.isl.evs.ssh.core.network.handler.Decrypter;
 import de.unipassau.isl.evs.ssh.core.network.handler.Encrypter;
+import de.unipassau.isl.evs.ssh.core.network.handler.FlushConsolidator;
+import de.unipassau.isl.evs.ssh.core.network.handler.OutboundLaneHandler;
 import de.unipassau.isl.evs.ssh.core.network.handler.PipelinePlug;
 import de.unipassau.isl.evs.ssh.core.network.handler.SignatureChecker;
 import de.unipassau.isl.evs.ssh.core.network.handler.SignatureGenerator;
@@ -49,7 +54,6 @@ import io.netty.handler.codec.serialization.ObjectDecoder;
 import io.netty.handler.codec.serialization.ObjectEncoder;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
-import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.ReferenceCountUtil;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -61,7 +65,9 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.SecureRandom;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
 import java.util.Arrays;
 
 import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.*;
@@ -81,6 +87,15 @@ public class ClientHandshakeHandler extends ChannelHandlerAdapter {
     private final byte[] chapChallenge = new byte[HandshakePacket.CHAP.CHALLENGE_LENGTH];
     private State state;
     private boolean triedRegister;
+    /**
+     * Whether the full Certificate was already sent or requested, so that a mismatching hash can only be retried once.
+     */
+    private boolean fullHelloSent;
+    private boolean certificateRequested;
+    /**
+     * Whether a session ticket was presented to the Master to resume the last session.
+     */
+    private boolean resumptionOffered;
 
     public ClientHandshakeHandler(Container container) {
         this.container = container;
@@ -97,16 +112,23 @@ public class ClientHandshakeHandler extends ChannelHandlerAdapter {
     public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
         logger.debug("channelRegistered " + ctx);
         ctx.attr(ATTR_HANDSHAKE_FINISHED).set(false);
+        final CoreConfiguration config = container.get(CoreConfiguration.KEY);
 
         // Add (de-)serialization Handlers before this Handler
         ctx.pipeline().addBefore(ctx.name(), ObjectEncoder.class.getSimpleName(), new ObjectEncoder());
         ctx.pipeline().addBefore(ctx.name(), ObjectDecoder.class.getSimpleName(), new ObjectDecoder(
                 ClassResolvers.weakCachingConcurrentResolver(getClass().getClassLoader())));
         ctx.pipeline().addBefore(ctx.name(), LoggingHandler.class.getSimpleName(), new LoggingHandler(LogLevel.TRACE));
+        // Let control messages overtake bulk transfers that are waiting to be written
+        ctx.pipeline().addBefore(ctx.name(), OutboundLaneHandler.class.getSimpleName(), new OutboundLaneHandler(
+                config != null ? config.getOutboundLanes() : OutboundLaneHandler.DEFAULT_LANES,
+                config != null ? config.getConflatedKeys() : ConflationKey.DEFAULT_CONFLATED_KEYS));
+
+        // Consolidate flushes before they reach the socket
+        final int flushDelay = config != null ? config.getFlushDelayMicros() : DEFAULT_FLUSH_DELAY_MICROS;
+        ctx.pipeline().addFirst(FlushConsolidator.class.getSimpleName(), new FlushConsolidator(flushDelay));
 
         // Timeout Handler
-        ctx.pipeline().addBefore(ctx.name(), IdleStateHandler.class.getSimpleName(),
-                new IdleStateHandler(READER_IDLE_TIME, WRITER_IDLE_TIME, ALL_IDLE_TIME));
         ctx.pipeline().addBefore(ctx.name(), TimeoutHandler.class.getSimpleName(), new TimeoutHandler());
 
         // Add exception handler
@@ -122,15 +144,37 @@ public class ClientHandshakeHandler extends ChannelHandlerAdapter {
         super.channelActive(ctx);
         final NamingManager namingManager = container.require(NamingManager.KEY);
         assert !namingManager.isMaster();
-        ctx.writeAndFlush(new HandshakePacket.Hello(namingManager.getOwnCertificate(), false));
+        if (namingManager.isMasterKnown()) {
+            // the Master already stores my Certificate, so only send its hash
+            final byte[] sessionTicket = container.require(Client.KEY).takeSessionTicket();
+            if (sessionTicket != null) {
+                resumptionOffered = true;
+                ctx.writeAndFlush(HandshakePacket.Hello.resume(
+                        namingManager.getOwnCertificate(), namingManager.getMasterCertificate(), sessionTicket));
+            } else {
+                ctx.writeAndFlush(HandshakePacket.Hello.compact(
+                        namingManager.getOwnCertificate(), false, namingManager.getMasterCertificate()));
+            }
+        } else {
+            sendFullHello(ctx);
+        }
         setState(null, State.EXPECT_HELLO);
         logger.debug("Sent Client Hello, expecting Server Hello");
     }
 
+    private void sendFullHello(ChannelHandlerContext ctx) throws CertificateEncodingException {
+        final NamingManager namingManager = container.require(NamingManager.KEY);
+        fullHelloSent = true;
+        ctx.writeAndFlush(HandshakePacket.Hello.full(namingManager.getOwnCertificate(), false,
+                namingManager.isMasterKnown() ? namingManager.getMasterCertificate() : null));
+    }
+
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         try {
             if (msg instanceof HandshakePacket.Hello) {
                 handleHello(ctx, ((HandshakePacket.Hello) msg));
+            } else if (msg instanceof HandshakePacket.CertificateRequest) {
+                handleCertificateRequest(ctx);
             } else if (msg instanceof HandshakePacket.CHAP) {
                 handleChapResponse(ctx, ((HandshakePacket.CHAP) msg));
             } else if (msg instanceof HandshakePacket.ServerAuthenticationResponse) {
@@ -150,14 +194,43 @@ public class ClientHandshakeHandler extends ChannelHandlerAdapter {
         ReferenceCountUtil.release(msg);
     }
 
+    /**
+     * The Master doesn't know the Certificate from my compact Hello, so send the full one.
+     */
+    private void handleCertificateRequest(ChannelHandlerContext ctx) throws HandshakeException, CertificateEncodingException {
+        if (state != State.EXPECT_HELLO || fullHelloSent) {
+            throw new HandshakeException("Unexpected certificate request in state " + state);
+        }
+        logger.debug("Master requested my full Certificate, sending full Client Hello");
+        sendFullHello(ctx);
+    }
+
     private void handleHello(ChannelHandlerContext ctx, HandshakePacket.Hello msg) throws GeneralSecurityException {
+        final NamingManager namingManager = container.require(NamingManager.KEY);
+        X509Certificate certificate = msg.certificate;
+        if (certificate == null) {
+            // compact Hello, use the stored Certificate of the Master if it has the indicated hash
+            if (state == State.EXPECT_HELLO && namingManager.isMasterKnown()
+                    && msg.deviceID.equals(namingManager.getMasterID())
+                    && msg.matches(namingManager.getMasterCertificate())) {
+                certificate = namingManager.getMasterCertificate();
+            } else if (state == State.EXPECT_HELLO && !certificateRequested && !msg.resumed) {
+                logger.debug("Got compact Server Hello with unknown Certificate " + msg.deviceID + ", requesting full Certificate");
+                certificateRequested = true;
+                ctx.writeAndFlush(new HandshakePacket.CertificateRequest()).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+                return;
+            } else {
+                throw new HandshakeException("Server sent compact Hello with unknown Certificate " + msg.deviceID);
+            }
+        }
+        if (msg.resumed && !resumptionOffered) {
+            throw new HandshakeException("Server resumed a session although no session ticket was presented");
+        }
         setState(State.EXPECT_HELLO, State.EXPECT_CHAP);
-        logger.debug("Got Server Hello, sending 1. CHAP and awaiting 2. CHAP as response");
         assert msg.isMaster;
 
         // import data from Hello packet
-        final NamingManager namingManager = container.require(NamingManager.KEY);
-        final DeviceID certID = DeviceID.fromCertificate(msg.certificate);
+        final DeviceID certID = DeviceID.fromCertificate(certificate);
         // verify the data if the Master is already known, otherwise the registration token will be checked later
         if (namingManager.isMasterIDKnown()) {
             final DeviceID masterID = namingManager.getMasterID();
@@ -166,23 +239,31 @@ public class ClientHandshakeHandler extends ChannelHandlerAdapter {
             }
             if (!namingManager.isMasterKnown()) {
                 // first connection to master, register certificate for already known DeviceID
-                namingManager.setMasterCertificate(msg.certificate);
+                namingManager.setMasterCertificate(certificate);
             }
         }
 
         // set channel attributes
-        ctx.attr(ATTR_PEER_CERT).set(msg.certificate);
+        ctx.attr(ATTR_PEER_CERT).set(certificate);
         ctx.attr(ATTR_PEER_ID).set(certID);
 
         // add Security handlers
-        final PublicKey remotePublicKey = msg.certificate.getPublicKey();
+        final PublicKey remotePublicKey = certificate.getPublicKey();
         final PrivateKey localPrivateKey = container.require(KeyStoreController.KEY).getOwnPrivateKey();
         ctx.pipeline().addBefore(ObjectEncoder.class.getSimpleName(), Encrypter.class.getSimpleName(), new Encrypter(remotePublicKey));
         ctx.pipeline().addBefore(ObjectEncoder.class.getSimpleName(), Decrypter.class.getSimpleName(), new Decrypter(localPrivateKey));
         ctx.pipeline().addBefore(ObjectEncoder.class.getSimpleName(), SignatureChecker.class.getSimpleName(), new SignatureChecker(remotePublicKey));
         ctx.pipeline().addBefore(ObjectEncoder.class.getSimpleName(), SignatureGenerator.class.getSimpleName(), new SignatureGenerator(localPrivateKey));
 
+        if (msg.resumed) {
+            // the Master accepted the session ticket and directly sends the signed ServerAuthenticationResponse
+            setState(State.EXPECT_CHAP, State.EXPECT_STATE);
+            logger.debug("Got Server Hello resuming the last session, awaiting State");
+            return;
+        }
+
         // and send the initial CHAP packet to the master
+        logger.debug("Got Server Hello, sending 1. CHAP and awaiting 2. CHAP as response");
         new SecureRandom().nextBytes(chapChallenge);
         ctx.writeAndFlush(new HandshakePacket.CHAP(chapChallenge, null)).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
     }
@@ -223,6 +304,10 @@ public class ClientHandshakeHandler extends ChannelHandlerAdapter {
                 return;
             }
 
+            if (msg.sessionTicket != null) {
+                container.require(Client.KEY).setSessionTicket(msg.sessionTicket, msg.sessionTicketLifetime);
+            }
+
             setState(State.STATE_RECEIVED, State.FINISHED);
             ctx.attr(ATTR_HANDSHAKE_FINISHED).set(true);
             ctx.attr(ATTR_LOCAL_CONNECTION).set(msg.isConnectionLocal);
@@ -257,11 +342,21 @@ public class ClientHandshakeHandler extends ChannelHandlerAdapter {
         if (state != State.FINISHED) {
             throw new IllegalStateException("Handshake not finished: " + state);
         }
+        if (!container.require(Client.KEY).claimConnection(ctx.channel())) {
+            logger.debug("Another connection to the Master was established first, closing " + ctx.channel());
+            ctx.close();
+            return;
+        }
 
         // allow pings
         TimeoutHandler.setPingEnabled(ctx.channel(), true);
         // add Dispatcher
         ctx.pipeline().addBefore(ctx.name(), IncomingDispatcher.class.getSimpleName(), container.require(IncomingDispatcher.KEY));
+        // notify about changes of the writability of the connection
+        final OutgoingRouter router = container.get(OutgoingRouter.KEY);
+        if (router instanceof ClientOutgoingRouter) {
+            ctx.pipeline().addBefore(ctx.name(), "WritabilityHandler", ((ClientOutgoingRouter) router).getWritabilityHandler());
+        }
         // Logging is handled by IncomingDispatcher and OutgoingRouter
         ctx.pipeline().remove(LoggingHandler.class.getSimpleName());
         // remove HandshakeHandler
@@ -26,14 +26,29 @@
 
 package de.unipassau.isl.evs.ssh.core.network;
 
-import java.io.IOException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
+import de.unipassau.isl.evs.ssh.core.CoreConfiguration;
+import de.unipassau.isl.evs.ssh.core.CoreConstants.OfflineQueueConstants;
+import de.unipassau.isl.evs.ssh.core.messaging.ConflationKey;
 import de.unipassau.isl.evs.ssh.core.messaging.IncomingDispatcher;
 import de.unipassau.isl.evs.ssh.core.messaging.Message;
 import de.unipassau.isl.evs.ssh.core.messaging.OutgoingRouter;
+import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
 import de.unipassau.isl.evs.ssh.core.schedule.ExecutionServiceComponent;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Receives messages from system components and decides how to route them to the targets.
@@ -41,8 +56,32 @@ import io.netty.util.concurrent.Future;
  * @author Niko Fink
  */
 public class ClientOutgoingRouter extends OutgoingRouter {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final ChannelHandler writabilityHandler = new WritabilityHandler();
+    private OfflineQueue offlineQueue;
+
     @Override
     protected Future<Void> doSendMessage(Message.AddressedMessage amsg) {
+        return doSendMessage(amsg, true);
+    }
+
+    /**
+     * Writes all messages to the Master before flushing the channel once.
+     */
+    @Override
+    protected List<Future<Void>> doSendMessages(List<Message.AddressedMessage> messages) {
+        final List<Future<Void>> futures = new ArrayList<>(messages.size());
+        for (Message.AddressedMessage message : messages) {
+            futures.add(doSendMessage(message, false));
+        }
+        final Channel channel = requireComponent(Client.KEY).getChannel();
+        if (channel != null) {
+            channel.flush();
+        }
+        return futures;
+    }
+
+    private Future<Void> doSendMessage(Message.AddressedMessage amsg, boolean flush) {
         final Client client = requireComponent(Client.KEY);
         final ExecutionServiceComponent executionService = requireComponent(ExecutionServiceComponent.KEY);
         if (Objects.equals(amsg.getToID(), getOwnID())) {
@@ -51,14 +90,20 @@ public class ClientOutgoingRouter extends OutgoingRouter {
             return executionService.newSucceededFuture(null);
         } else if (Objects.equals(amsg.getToID(), getMasterID())) {
             //Send to master
-            if (client.isConnectionEstablished()) {
-                //noinspection ConstantConditions
-                return client.getChannel().writeAndFlush(amsg);
-            } else {
-                //in a future version, pending messages could be queued instead of failed directly
-                Exception e = new IOException("Master " + amsg.getToID() + " is not connected");
-                e.fillInStackTrace();
-                return executionService.newFailedFuture(e);
+            final OfflineQueue queue = getOfflineQueue();
+            synchronized (queue) {
+                if (client.isConnectionEstablished() && queue.isEmpty()) {
+                    final Channel channel = client.getChannel();
+                    //noinspection ConstantConditions
+                    return flush ? channel.writeAndFlush(amsg) : channel.write(amsg);
+                }
+                //queue pending messages until the Master is connected, keeping them in order if the queue is being drained
+                logger.debug("Master " + amsg.getToID() + " is not connected, queueing " + amsg);
+                final Future<Void> future = queue.add(amsg, executionService.<Void>newPromise());
+                if (client.isConnectionEstablished()) {
+                    flushOfflineQueue(client, queue);
+                }
+                return future;
             }
         } else {
             //Can't send to other devices
@@ -68,4 +113,176 @@ public class ClientOutgoingRouter extends OutgoingRouter {
             return executionService.newFailedFuture(e);
         }
     }
+
+    /**
+     * Send all messages that were queued while the Master was not connected.
+     * Called by the {@link Client} as soon as the connection is established.
+     */
+    void flushOfflineQueue() {
+        flushOfflineQueue(requireComponent(Client.KEY), getOfflineQueue());
+    }
+
+    private void flushOfflineQueue(Client client, final OfflineQueue queue) {
+        synchronized (queue) {
+            final Channel channel = client.getChannel();
+            if (channel == null || !client.isConnectionEstablished() || queue.isEmpty()) {
+                return;
+            }
+            final List<OfflineQueue.Entry> entries = queue.drain();
+            logger.debug("Sending " + entries.size() + " messages queued while the Master was not connected");
+            final Drain drain = new Drain(queue, entries);
+            for (int i = 0; i < entries.size() && !drain.aborted; i++) {
+                final OfflineQueue.Entry entry = entries.get(i);
+                if (entry.message.isExpired()) {
+                    entry.promise.tryFailure(expired(entry.message));
+                    continue;
+                }
+                channel.write(entry.message).addListener(drain.listener(i));
+            }
+            channel.flush();
+        }
+    }
+
+    /**
+     * Completes the Promises of drained messages once they are written. If the connection is lost while draining,
+     * the first failed message and all messages after it are put back at the head of the queue in their original
+     * order, so that they are still sent in order once the connection is established again.
+     */
+    private class Drain {
+        private final OfflineQueue queue;
+        private final List<OfflineQueue.Entry> entries;
+        /**
+         * Set once the connection was lost, guarded by the queue
+         */
+        private boolean aborted = false;
+
+        private Drain(OfflineQueue queue, List<OfflineQueue.Entry> entries) {
+            this.queue = queue;
+            this.entries = entries;
+        }
+
+        private ChannelFutureListener listener(final int index) {
+            return new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    final OfflineQueue.Entry entry = entries.get(index);
+                    if (future.isSuccess()) {
+                        entry.promise.trySuccess(null);
+                    } else if (!future.channel().isActive()) {
+                        abort(index);
+                    } else {
+                        entry.promise.tryFailure(future.cause());
+                    }
+                }
+            };
+        }
+
+        private void abort(int index) {
+            synchronized (queue) {
+                if (aborted) {
+                    return; // all following messages have already been queued again
+                }
+                aborted = true;
+                final List<OfflineQueue.Entry> failed = new ArrayList<>(entries.size() - index);
+                for (OfflineQueue.Entry entry : entries.subList(index, entries.size())) {
+                    if (!entry.promise.isDone()) {
+                        failed.add(entry);
+                    }
+                }
+                logger.debug("Connection to the Master lost while sending queued messages, queueing "
+                        + failed.size() + " messages again");
+                queue.requeueFirst(failed);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the Master is connected and the amount of data waiting to be sent to it doesn't exceed
+     * the high water mark of the channel, {@code true} for this device itself and {@code false} for all others
+     */
+    @Override
+    public boolean isWritable(DeviceID toID) {
+        if (Objects.equals(toID, getOwnID())) {
+            return true;
+        } else if (Objects.equals(toID, getMasterID())) {
+            final Client client = requireComponent(Client.KEY);
+            final Channel channel = client.getChannel();
+            return channel != null && client.isConnectionEstablished() && channel.isWritable();
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * @return the handler that is added to the pipeline of the connection to the Master once the handshake is
+     * finished and notifies the {@link WritabilityListener}s about changes of the connection's writability
+     */
+    ChannelHandler getWritabilityHandler() {
+        return writabilityHandler;
+    }
+
+    @ChannelHandler.Sharable
+    private class WritabilityHandler extends ChannelHandlerAdapter {
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+            notifyWritabilityChanged(getMasterID(), ctx.channel().isWritable());
+            super.handlerAdded(ctx);
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            notifyWritabilityChanged(getMasterID(), ctx.channel().isWritable());
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            notifyDisconnected(getMasterID());
+            super.channelInactive(ctx);
+        }
+    }
+
+    /**
+     * @return the number of messages queued while the Master is not connected
+     */
+    public int getOfflineQueueSize() {
+        return getOfflineQueue().size();
+    }
+
+    private synchronized OfflineQueue getOfflineQueue() {
+        if (offlineQueue == null) {
+            final CoreConfiguration config = getComponent(CoreConfiguration.KEY);
+            if (config != null) {
+                final String journal = config.getOfflineQueueJournal();
+                offlineQueue = new OfflineQueue(
+                        config.getOfflineQueueCapacity(),
+                        config.getOfflineQueueTTL(),
+                        config.getOfflineQueueTTLs(),
+                        config.getConflatedKeys(),
+                        journal != null ? new File(journal) : null
+                );
+            } else {
+                offlineQueue = new OfflineQueue(
+                        OfflineQueueConstants.DEFAULT_CAPACITY,
+                        OfflineQueueConstants.DEFAULT_TTL_MILLIS,
+                        Collections.<String, Long>emptyMap(),
+                        ConflationKey.DEFAULT_CONFLATED_KEYS,
+                        null
+                );
+            }
+            offlineQueue.load(requireComponent(ExecutionServiceComponent.KEY));
+        }
+        return offlineQueue;
+    }
+
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (offlineQueue != null) {
+                offlineQueue.closeJournal();
+                offlineQueue = null;
+            }
+        }
+        super.destroy();
+    }
 }
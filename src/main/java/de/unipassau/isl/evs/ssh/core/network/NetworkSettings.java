@@ -0,0 +1,326 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network;
+
+import de.unipassau.isl.evs.ssh.core.CoreConfiguration;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import org.jetbrains.annotations.Nullable;
+
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DEFAULT_WRITE_BUFFER_LOW_WATER_MARK;
+
+/**
+ * The socket and buffer options that are applied to all Channels, read from the {@code [network]} section of the
+ * {@link CoreConfiguration} with the defaults of the configured {@link Profile}.
+ *
+ * @author Niko Fink
+ * @see CoreConfiguration#getNetworkSettings()
+ */
+public class NetworkSettings {
+    /**
+     * Presets for the network options, selected by {@code profile} in the {@code [network]} section.
+     * Every option can still be overridden individually.
+     */
+    public enum Profile {
+        /**
+         * The operating system's and Netty's defaults, only limiting the write buffer.
+         */
+        DEFAULT(null, true, DEFAULT_CONNECT_TIMEOUT_MILLIS, 0, 0,
+                DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK, DEFAULT_WRITE_BUFFER_LOW_WATER_MARK,
+                64, 1024, 65536, Allocator.DEFAULT, true),
+        /**
+         * Low latency in a local network: Nagle's algorithm is disabled, so that small messages are sent at once, and
+         * pooled direct buffers are used, so that messages don't need to be copied to native memory and don't
+         * produce garbage. The socket buffers are left to the auto-tuning of the operating system.
+         */
+        LAN(true, true, DEFAULT_CONNECT_TIMEOUT_MILLIS, 0, 0,
+                DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK, DEFAULT_WRITE_BUFFER_LOW_WATER_MARK,
+                64, 1024, 65536, Allocator.POOLED, true),
+        /**
+         * Constrained mobile devices with slow links: small socket and receive buffers, an early backpressure through
+         * low water marks and unpooled heap buffers, as the arenas of the pooled allocator reserve several megabytes.
+         * Nagle's algorithm is also disabled, as it would delay small messages by a full round trip, and connection
+         * attempts are given more time.
+         */
+        MOBILE(true, true, 2 * DEFAULT_CONNECT_TIMEOUT_MILLIS, 32 * 1024, 32 * 1024, 32 * 1024, 8 * 1024,
+                64, 512, 16 * 1024, Allocator.UNPOOLED, false);
+
+        @Nullable
+        private final Boolean tcpNoDelay;
+        private final boolean keepAlive;
+        private final int connectTimeoutMillis;
+        private final int sendBufferSize;
+        private final int receiveBufferSize;
+        private final int writeBufferHighWaterMark;
+        private final int writeBufferLowWaterMark;
+        private final int minReceiveAllocation;
+        private final int initialReceiveAllocation;
+        private final int maxReceiveAllocation;
+        private final Allocator allocator;
+        private final boolean preferDirect;
+
+        Profile(@Nullable Boolean tcpNoDelay, boolean keepAlive, int connectTimeoutMillis,
+                int sendBufferSize, int receiveBufferSize,
+                int writeBufferHighWaterMark, int writeBufferLowWaterMark,
+                int minReceiveAllocation, int initialReceiveAllocation, int maxReceiveAllocation,
+                Allocator allocator, boolean preferDirect) {
+            this.tcpNoDelay = tcpNoDelay;
+            this.keepAlive = keepAlive;
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.sendBufferSize = sendBufferSize;
+            this.receiveBufferSize = receiveBufferSize;
+            this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+            this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+            this.minReceiveAllocation = minReceiveAllocation;
+            this.initialReceiveAllocation = initialReceiveAllocation;
+            this.maxReceiveAllocation = maxReceiveAllocation;
+            this.allocator = allocator;
+            this.preferDirect = preferDirect;
+        }
+
+        /**
+         * @return the settings of this profile without any overrides
+         */
+        public NetworkSettings getSettings() {
+            return new NetworkSettings(tcpNoDelay, keepAlive, connectTimeoutMillis, sendBufferSize, receiveBufferSize,
+                    writeBufferHighWaterMark, writeBufferLowWaterMark,
+                    minReceiveAllocation, initialReceiveAllocation, maxReceiveAllocation,
+                    allocator, preferDirect);
+        }
+    }
+
+    /**
+     * The ByteBufAllocators that can be selected by {@code allocator} in the {@code [network]} section.
+     * The instances are shared by all Channels, so that pooled buffers can be reused across connections.
+     */
+    public enum Allocator {
+        /**
+         * Netty's default allocator, which is pooled except on Android.
+         */
+        DEFAULT,
+        POOLED,
+        UNPOOLED;
+
+        @Nullable
+        private ByteBufAllocator get(boolean preferDirect) {
+            switch (this) {
+                case POOLED:
+                    return preferDirect ? AllocatorHolder.POOLED_DIRECT : AllocatorHolder.POOLED_HEAP;
+                case UNPOOLED:
+                    return preferDirect ? AllocatorHolder.UNPOOLED_DIRECT : AllocatorHolder.UNPOOLED_HEAP;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Creates the allocators only if they are used.
+     */
+    private static class AllocatorHolder {
+        private static final ByteBufAllocator POOLED_DIRECT = new PooledByteBufAllocator(true);
+        private static final ByteBufAllocator POOLED_HEAP = new PooledByteBufAllocator(false);
+        private static final ByteBufAllocator UNPOOLED_DIRECT = new UnpooledByteBufAllocator(true);
+        private static final ByteBufAllocator UNPOOLED_HEAP = new UnpooledByteBufAllocator(false);
+    }
+
+    @Nullable
+    private final Boolean tcpNoDelay;
+    private final boolean keepAlive;
+    private final int connectTimeoutMillis;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final int writeBufferHighWaterMark;
+    private final int writeBufferLowWaterMark;
+    private final int minReceiveAllocation;
+    private final int initialReceiveAllocation;
+    private final int maxReceiveAllocation;
+    private final Allocator allocator;
+    private final boolean preferDirect;
+
+    /**
+     * @param tcpNoDelay               whether Nagle's algorithm is disabled, {@code null} for the platform's default
+     * @param keepAlive                whether TCP keep-alive probes are sent on idle connections ({@code SO_KEEPALIVE})
+     * @param connectTimeoutMillis     the time in milliseconds after which an attempt to connect is abandoned
+     * @param sendBufferSize           {@code SO_SNDBUF} in bytes, {@code 0} for the operating system's default
+     * @param receiveBufferSize        {@code SO_RCVBUF} in bytes, {@code 0} for the operating system's default
+     * @param writeBufferHighWaterMark the number of bytes waiting to be sent after which a channel is no longer writable
+     * @param writeBufferLowWaterMark  the number of bytes below which an unwritable channel becomes writable again
+     * @param minReceiveAllocation     the minimum size of the buffers allocated for reading from a TCP connection
+     * @param initialReceiveAllocation the initial size of the buffers allocated for reading from a TCP connection
+     * @param maxReceiveAllocation     the maximum size of the buffers allocated for reading from a TCP connection
+     * @param allocator                the allocator for all buffers of a Channel
+     * @param preferDirect             whether the allocator should use direct instead of heap buffers
+     */
+    public NetworkSettings(@Nullable Boolean tcpNoDelay, boolean keepAlive, int connectTimeoutMillis,
+                           int sendBufferSize, int receiveBufferSize,
+                           int writeBufferHighWaterMark, int writeBufferLowWaterMark,
+                           int minReceiveAllocation, int initialReceiveAllocation, int maxReceiveAllocation,
+                           Allocator allocator, boolean preferDirect) {
+        this.tcpNoDelay = tcpNoDelay;
+        this.keepAlive = keepAlive;
+        this.connectTimeoutMillis = Math.max(0, connectTimeoutMillis);
+        this.sendBufferSize = Math.max(0, sendBufferSize);
+        this.receiveBufferSize = Math.max(0, receiveBufferSize);
+        this.writeBufferHighWaterMark = Math.max(1, writeBufferHighWaterMark);
+        this.writeBufferLowWaterMark = Math.max(0, Math.min(writeBufferLowWaterMark, this.writeBufferHighWaterMark));
+        this.minReceiveAllocation = Math.max(1, minReceiveAllocation);
+        this.maxReceiveAllocation = Math.max(this.minReceiveAllocation, maxReceiveAllocation);
+        this.initialReceiveAllocation = Math.max(this.minReceiveAllocation,
+                Math.min(initialReceiveAllocation, this.maxReceiveAllocation));
+        this.allocator = allocator;
+        this.preferDirect = preferDirect;
+    }
+
+    /**
+     * Apply these settings to the Bootstrap of a TCP connection.
+     * The write buffer water marks depend on each other and are set by {@link #applyTo(Channel)} instead.
+     */
+    public void applyTo(Bootstrap b) {
+        if (tcpNoDelay != null) {
+            b.option(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        }
+        b.option(ChannelOption.SO_KEEPALIVE, keepAlive);
+        if (connectTimeoutMillis > 0) {
+            b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis);
+        }
+        applySocketBuffers(b);
+        b.option(ChannelOption.RCVBUF_ALLOCATOR, new AdaptiveRecvByteBufAllocator(
+                minReceiveAllocation, initialReceiveAllocation, maxReceiveAllocation));
+    }
+
+    /**
+     * Apply the write buffer water marks to a newly created TCP Channel, e.g. from a ChannelInitializer.
+     */
+    public void applyTo(Channel channel) {
+        final ChannelConfig config = channel.config();
+        // the high water mark can't be set below the current low water mark and vice versa
+        if (writeBufferHighWaterMark >= config.getWriteBufferLowWaterMark()) {
+            config.setWriteBufferHighWaterMark(writeBufferHighWaterMark);
+            config.setWriteBufferLowWaterMark(writeBufferLowWaterMark);
+        } else {
+            config.setWriteBufferLowWaterMark(writeBufferLowWaterMark);
+            config.setWriteBufferHighWaterMark(writeBufferHighWaterMark);
+        }
+    }
+
+    /**
+     * Apply these settings to the Bootstrap of a UDP channel.
+     *
+     * @param maxPacketSize the maximum size of a packet that is processed, larger packets are truncated to one more
+     *                      byte, so that they can still be recognized
+     */
+    public void applyToDatagram(Bootstrap b, int maxPacketSize) {
+        applySocketBuffers(b);
+        b.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(maxPacketSize + 1));
+    }
+
+    private void applySocketBuffers(Bootstrap b) {
+        if (sendBufferSize > 0) {
+            b.option(ChannelOption.SO_SNDBUF, sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            b.option(ChannelOption.SO_RCVBUF, receiveBufferSize);
+        }
+        final ByteBufAllocator byteBufAllocator = allocator.get(preferDirect);
+        if (byteBufAllocator != null) {
+            b.option(ChannelOption.ALLOCATOR, byteBufAllocator);
+        }
+    }
+
+    @Nullable
+    public Boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public int getMinReceiveAllocation() {
+        return minReceiveAllocation;
+    }
+
+    public int getInitialReceiveAllocation() {
+        return initialReceiveAllocation;
+    }
+
+    public int getMaxReceiveAllocation() {
+        return maxReceiveAllocation;
+    }
+
+    public Allocator getAllocator() {
+        return allocator;
+    }
+
+    public boolean isPreferDirect() {
+        return preferDirect;
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkSettings{" +
+                "tcpNoDelay=" + tcpNoDelay +
+                ", keepAlive=" + keepAlive +
+                ", connectTimeoutMillis=" + connectTimeoutMillis +
+                ", sendBufferSize=" + sendBufferSize +
+                ", receiveBufferSize=" + receiveBufferSize +
+                ", writeBufferWaterMarks=" + writeBufferLowWaterMark + "-" + writeBufferHighWaterMark +
+                ", receiveAllocation=" + minReceiveAllocation + "/" + initialReceiveAllocation + "/" + maxReceiveAllocation +
+                ", allocator=" + allocator + (preferDirect ? " direct" : " heap") +
+                '}';
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.unipassau.isl.evs.ssh.core.messaging.ConflationKey;
+import de.unipassau.isl.evs.ssh.core.messaging.Message;
+import de.unipassau.isl.evs.ssh.core.schedule.ExecutionServiceComponent;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseNotifier;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the messages the {@link ClientOutgoingRouter} can't send while the Master is not connected, so that they can
+ * be sent in order once the connection is established again. The queue is bounded, dropping the oldest message if
+ * it is full, and drops messages after their time to live, which can be configured per RoutingKey.
+ * A queued message sent to one of the {@link ConflationKey#DEFAULT_CONFLATED_KEYS conflated RoutingKeys} is replaced by a newer
+ * message with the same {@link ConflationKey}, as only the latest state update is of interest.
+ * <p>
+ * If a journal file is given, all queued messages are also appended to it, so that they survive a restart of the
+ * Client. The journal is truncated once the queue has been drained and messages that could not be sent because the
+ * connection broke again are {@link #requeueFirst(List) queued again}, so messages may be sent twice if the Client is
+ * stopped while sending them.
+ */
+class OfflineQueue {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    /**
+     * The queued entries in order, mapped by their ConflationKey if their RoutingKey is conflated or by themselves otherwise.
+     */
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>();
+    private final int capacity;
+    private final long defaultTTL;
+    private final Map<String, Long> ttls;
+    private final Set<String> conflatedKeys;
+    @Nullable
+    private final File journalFile;
+    @Nullable
+    private DataOutputStream journal;
+    private int journalRecords = 0;
+
+    /**
+     * @param capacity      the maximum number of queued messages
+     * @param defaultTTL    the time to live in milliseconds for messages whose RoutingKey has no own time to live
+     * @param ttls          the time to live in milliseconds per String RoutingKey
+     * @param conflatedKeys the String RoutingKeys whose queued messages are superseded by newer ones
+     * @param journalFile   the file queued messages are written to or {@code null} if they should only be held in memory
+     */
+    OfflineQueue(int capacity, long defaultTTL, Map<String, Long> ttls, Set<String> conflatedKeys, @Nullable File journalFile) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity " + capacity + " <= 0");
+        }
+        this.capacity = capacity;
+        this.defaultTTL = defaultTTL;
+        this.ttls = ttls;
+        this.conflatedKeys = conflatedKeys;
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Queue the message. The given Promise is completed once the message is sent after the connection is established
+     * or failed if the message is dropped.
+     *
+     * @return the given promise
+     */
+    synchronized Future<Void> add(Message.AddressedMessage message, Promise<Void> promise) {
+        final long ttl = getTTL(message.getRoutingKey());
+        if (ttl <= 0) {
+            promise.tryFailure(new IOException("Master " + message.getToID() + " is not connected"));
+            return promise;
+        }
+        final Entry entry = new Entry(message, System.currentTimeMillis() + ttl, promise);
+        enqueue(entry);
+        appendToJournal(entry);
+        return promise;
+    }
+
+    /**
+     * Put drained messages back at the head of the queue after sending them failed, keeping their original order in
+     * front of all messages queued in the meantime. Messages whose time to live elapsed are dropped and messages that
+     * have been superseded in the meantime are completed together with the superseding message.
+     *
+     * @param failed the messages that could not be sent, in the order they were drained
+     */
+    synchronized void requeueFirst(List<Entry> failed) {
+        final LinkedHashMap<Object, Entry> requeued = new LinkedHashMap<>();
+        final long now = System.currentTimeMillis();
+        for (Entry entry : failed) {
+            if (entry.expires <= now) {
+                entry.fail("Master " + entry.message.getToID() + " was not connected within the time to live of " + entry.message);
+                continue;
+            }
+            final Object key = conflatedKeys.contains(entry.message.getRoutingKey())
+                    ? ConflationKey.forMessage(entry.message) : entry;
+            final Entry newer = entries.containsKey(key) ? entries.get(key) : requeued.get(key);
+            if (newer != null) {
+                newer.promise.addListener(new PromiseNotifier<Void, Future<Void>>(entry.promise));
+                continue;
+            }
+            requeued.put(key, entry);
+        }
+        if (requeued.isEmpty()) {
+            return;
+        }
+        requeued.putAll(entries);
+        entries.clear();
+        entries.putAll(requeued);
+        for (Iterator<Entry> it = entries.values().iterator(); entries.size() > capacity; ) {
+            final Entry eldest = it.next();
+            it.remove();
+            eldest.fail("Offline queue is full, dropping message " + eldest.message);
+        }
+        rewriteJournal();
+    }
+
+    private void enqueue(Entry entry) {
+        removeExpired();
+        final Object key = conflatedKeys.contains(entry.message.getRoutingKey())
+                ? ConflationKey.forMessage(entry.message) : entry;
+        final Entry superseded = entries.remove(key);
+        if (superseded != null) {
+            logger.debug("Queued message " + superseded.message + " superseded by " + entry.message);
+            entry.promise.addListener(new PromiseNotifier<Void, Future<Void>>(superseded.promise));
+        } else if (entries.size() >= capacity) {
+            final Iterator<Entry> it = entries.values().iterator();
+            final Entry eldest = it.next();
+            it.remove();
+            eldest.fail("Offline queue is full, dropping message " + eldest.message);
+        }
+        entries.put(key, entry);
+    }
+
+    private void removeExpired() {
+        final long now = System.currentTimeMillis();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            final Entry entry = it.next();
+            if (entry.expires <= now) {
+                it.remove();
+                entry.fail("Master " + entry.message.getToID() + " was not connected within the time to live of " + entry.message);
+            }
+        }
+    }
+
+    private long getTTL(String routingKey) {
+        final Long ttl = ttls.get(routingKey);
+        return ttl != null ? ttl : defaultTTL;
+    }
+
+    synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove all messages from the queue, dropping those whose time to live elapsed, and truncate the journal.
+     *
+     * @return the queued messages that should be sent, in the order they were queued
+     */
+    synchronized List<Entry> drain() {
+        removeExpired();
+        final List<Entry> drained = new ArrayList<>(entries.values());
+        entries.clear();
+        truncateJournal();
+        return drained;
+    }
+
+    // JOURNAL /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Read the messages that were queued when the Client was stopped from the journal and queue them again.
+     * Promises for these messages are obtained from the given executor.
+     */
+    synchronized void load(ExecutionServiceComponent executor) {
+        if (journalFile == null || !journalFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                final long expires;
+                final byte[] data;
+                try {
+                    expires = in.readLong();
+                    data = new byte[in.readInt()];
+                    in.readFully(data);
+                } catch (EOFException e) {
+                    break; // end of journal or incomplete last record
+                }
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                    final Message.AddressedMessage message = (Message.AddressedMessage) ois.readObject();
+                    enqueue(new Entry(message, expires, executor.<Void>newPromise()));
+                } catch (ClassNotFoundException | ClassCastException | IOException e) {
+                    logger.warn("Skipping unreadable message in offline queue journal " + journalFile, e);
+                }
+            }
+        } catch (IOException | NegativeArraySizeException e) {
+            logger.warn("Could not read offline queue journal " + journalFile, e);
+        }
+        logger.debug("Loaded " + entries.size() + " queued messages from " + journalFile);
+        rewriteJournal();
+    }
+
+    private void appendToJournal(Entry entry) {
+        if (journalFile == null) {
+            return;
+        }
+        if (journalRecords > 2 * capacity) {
+            rewriteJournal();
+            return;
+        }
+        try {
+            if (journal == null) {
+                journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+            }
+            writeRecord(journal, entry);
+            journal.flush();
+            journalRecords++;
+        } catch (IOException e) {
+            logger.warn("Could not write message " + entry.message + " to offline queue journal " + journalFile, e);
+        }
+    }
+
+    /**
+     * Replace the journal by one only containing the currently queued messages,
+     * as superseded, dropped and expired messages are not removed from the journal.
+     */
+    private void rewriteJournal() {
+        if (journalFile == null) {
+            return;
+        }
+        closeJournal();
+        try {
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, false)));
+            for (Entry entry : entries.values()) {
+                writeRecord(journal, entry);
+            }
+            journal.flush();
+            journalRecords = entries.size();
+        } catch (IOException e) {
+            logger.warn("Could not rewrite offline queue journal " + journalFile, e);
+        }
+    }
+
+    private void truncateJournal() {
+        if (journalFile != null && journalRecords > 0) {
+            rewriteJournal();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, Entry entry) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(entry.message);
+        }
+        out.writeLong(entry.expires);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    synchronized void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.warn("Could not close offline queue journal " + journalFile, e);
+            }
+            journal = null;
+        }
+    }
+
+    static class Entry {
+        final Message.AddressedMessage message;
+        final long expires;
+        final Promise<Void> promise;
+
+        private Entry(Message.AddressedMessage message, long expires, Promise<Void> promise) {
+            this.message = message;
+            this.expires = expires;
+            this.promise = promise;
+        }
+
+        private void fail(String reason) {
+            promise.tryFailure(new IOException(reason));
+        }
+    }
+}
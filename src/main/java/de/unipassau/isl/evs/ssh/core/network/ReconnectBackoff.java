@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with full jitter for reconnecting the {@link Client} to the Master.
+ * The delay before the n-th consecutive attempt is chosen uniformly at random between 0 and
+ * {@code min(max, base * 2^n)}, so that clients that lost their connection at the same time, e.g. because the
+ * Master restarted, don't reconnect in lockstep. The backoff is reset once a handshake is successful.
+ */
+public class ReconnectBackoff {
+    private final Random random = new Random();
+    private final long baseMillis;
+    private final long maxMillis;
+    private int attempts = 0;
+    private long lastDelayMillis = 0;
+
+    public ReconnectBackoff(long baseMillis, long maxMillis) {
+        if (baseMillis <= 0 || maxMillis < baseMillis) {
+            throw new IllegalArgumentException("Invalid backoff between " + baseMillis + "ms and " + maxMillis + "ms");
+        }
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * Count a further reconnect attempt.
+     *
+     * @return the randomized time in milliseconds to wait before the attempt
+     */
+    public synchronized long nextDelayMillis() {
+        // limit the shift so that base << attempts can't overflow
+        final int shift = Math.min(attempts, Long.numberOfLeadingZeros(baseMillis) - 1);
+        final long bound = Math.min(maxMillis, baseMillis << shift);
+        attempts++;
+        lastDelayMillis = (long) (random.nextDouble() * (bound + 1));
+        return lastDelayMillis;
+    }
+
+    /**
+     * Start again with the shortest delay, called once the connection is established.
+     */
+    public synchronized void reset() {
+        attempts = 0;
+        lastDelayMillis = 0;
+    }
+
+    /**
+     * @return the number of reconnect attempts since the last {@link #reset()}
+     */
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return the delay returned by the last call to {@link #nextDelayMillis()}, or 0 after a {@link #reset()}
+     */
+    public synchronized long getLastDelayMillis() {
+        return lastDelayMillis;
+    }
+
+    public long getBaseMillis() {
+        return baseMillis;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{attempts=" + getAttempts() + ", lastDelay=" + getLastDelayMillis()
+                + "ms, base=" + baseMillis + "ms, max=" + maxMillis + "ms}";
+    }
+}
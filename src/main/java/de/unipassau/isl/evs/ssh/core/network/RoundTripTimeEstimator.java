@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the round trip time of a connection from ping/pong samples, using the smoothed round trip time and
+ * round trip time variation of TCP's retransmission timer (RFC 6298).
+ * The {@link #getTimeoutMillis() timeout} derived from them is used to detect a dead connection shortly after a ping
+ * was not answered, instead of waiting for a fixed idle time.
+ */
+public class RoundTripTimeEstimator {
+    private final long minTimeoutNanos;
+    private final long initialTimeoutNanos;
+    private final long maxTimeoutNanos;
+    private long smoothedNanos = -1;
+    private long variationNanos = -1;
+    private long lastSampleNanos = -1;
+    private int samples = 0;
+
+    /**
+     * @param minTimeoutMillis     the lower bound of the timeout
+     * @param initialTimeoutMillis the timeout before the first sample was taken
+     * @param maxTimeoutMillis     the upper bound of the timeout
+     */
+    public RoundTripTimeEstimator(long minTimeoutMillis, long initialTimeoutMillis, long maxTimeoutMillis) {
+        if (minTimeoutMillis <= 0 || initialTimeoutMillis < minTimeoutMillis || maxTimeoutMillis < initialTimeoutMillis) {
+            throw new IllegalArgumentException("Invalid timeouts " + minTimeoutMillis + "ms <= "
+                    + initialTimeoutMillis + "ms <= " + maxTimeoutMillis + "ms");
+        }
+        this.minTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(minTimeoutMillis);
+        this.initialTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(initialTimeoutMillis);
+        this.maxTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(maxTimeoutMillis);
+    }
+
+    /**
+     * Add a measured round trip time.
+     */
+    public synchronized void addSample(long rttNanos) {
+        if (rttNanos < 0) {
+            return;
+        }
+        if (samples == 0) {
+            smoothedNanos = rttNanos;
+            variationNanos = rttNanos / 2;
+        } else {
+            // RTTVAR <- 3/4 * RTTVAR + 1/4 * |SRTT - R|, SRTT <- 7/8 * SRTT + 1/8 * R
+            variationNanos = variationNanos - variationNanos / 4 + Math.abs(smoothedNanos - rttNanos) / 4;
+            smoothedNanos = smoothedNanos - smoothedNanos / 8 + rttNanos / 8;
+        }
+        lastSampleNanos = rttNanos;
+        samples++;
+    }
+
+    /**
+     * @return the time in milliseconds after which an answer to a ping should have been received, i.e.
+     * {@code SRTT + 4 * RTTVAR} within the bounds passed to the constructor
+     */
+    public synchronized long getTimeoutMillis() {
+        final long timeout = samples == 0 ? initialTimeoutNanos : smoothedNanos + 4 * variationNanos;
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(minTimeoutNanos, Math.min(maxTimeoutNanos, timeout)));
+    }
+
+    /**
+     * @return the smoothed round trip time in milliseconds or {@code -1} if no sample was taken yet
+     */
+    public synchronized long getSmoothedMillis() {
+        return samples == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(smoothedNanos);
+    }
+
+    /**
+     * @return the round trip time variation in milliseconds or {@code -1} if no sample was taken yet
+     */
+    public synchronized long getVariationMillis() {
+        return samples == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(variationNanos);
+    }
+
+    /**
+     * @return the last measured round trip time in milliseconds or {@code -1} if no sample was taken yet
+     */
+    public synchronized long getLastSampleMillis() {
+        return samples == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(lastSampleNanos);
+    }
+
+    /**
+     * @return the number of samples taken
+     */
+    public synchronized int getSamples() {
+        return samples;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RoundTripTimeEstimator{" +
+                "srtt=" + getSmoothedMillis() + "ms" +
+                ", rttvar=" + getVariationMillis() + "ms" +
+                ", timeout=" + getTimeoutMillis() + "ms" +
+                ", samples=" + samples +
+                '}';
+    }
+}
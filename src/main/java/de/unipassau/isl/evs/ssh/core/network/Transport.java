@@ -0,0 +1,157 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.ExecutorServiceFactory;
+
+/**
+ * The I/O transports Netty provides, bundling the EventLoopGroup with the Channel types that can be registered to it.
+ * The native epoll transport is only available on Linux and uses edge-triggered I/O, producing less garbage than NIO.
+ * It is an optional dependency of core, so devices that want to use it have to add
+ * {@code netty-transport-native-epoll} to their own runtime classpath.
+ * All constants only load their Netty classes when they are used, so that {@link #EPOLL} can be referenced on
+ * platforms without the native library.
+ *
+ * @author Niko Fink
+ */
+public enum Transport {
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int nThreads, ExecutorServiceFactory executorServiceFactory) {
+            return new NioEventLoopGroup(nThreads, executorServiceFactory);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> getSocketChannelClass() {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends DatagramChannel> getDatagramChannelClass() {
+            return NioDatagramChannel.class;
+        }
+
+        @Override
+        boolean isEventLoopGroup(EventLoopGroup group) {
+            return group instanceof NioEventLoopGroup;
+        }
+    },
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            try {
+                return Epoll.isAvailable();
+            } catch (LinkageError e) {
+                // netty-transport-native-epoll is not on the classpath, e.g. on Android
+                return false;
+            }
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int nThreads, ExecutorServiceFactory executorServiceFactory) {
+            return new EpollEventLoopGroup(nThreads, executorServiceFactory);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> getSocketChannelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends DatagramChannel> getDatagramChannelClass() {
+            return EpollDatagramChannel.class;
+        }
+
+        @Override
+        boolean isEventLoopGroup(EventLoopGroup group) {
+            return isAvailable() && group instanceof EpollEventLoopGroup;
+        }
+    };
+
+    /**
+     * @return {@code true} if this transport can be used on this platform
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * @param nThreads               the number of threads, {@code 0} for Netty's default
+     * @param executorServiceFactory the factory for the threads of the EventLoops
+     * @return a new EventLoopGroup for Channels of this transport
+     */
+    public abstract EventLoopGroup newEventLoopGroup(int nThreads, ExecutorServiceFactory executorServiceFactory);
+
+    /**
+     * @return the TCP Channel type that can be registered to the EventLoopGroups of this transport
+     */
+    public abstract Class<? extends SocketChannel> getSocketChannelClass();
+
+    /**
+     * @return the UDP Channel type that can be registered to the EventLoopGroups of this transport
+     */
+    public abstract Class<? extends DatagramChannel> getDatagramChannelClass();
+
+    abstract boolean isEventLoopGroup(EventLoopGroup group);
+
+    /**
+     * @param preferNative {@code true} if the native transport should be used if it is available on this platform
+     * @return {@link #EPOLL} if it is preferred and available, {@link #NIO} otherwise
+     */
+    public static Transport select(boolean preferNative) {
+        if (preferNative && EPOLL.isAvailable()) {
+            return EPOLL;
+        }
+        return NIO;
+    }
+
+    /**
+     * @return the transport whose Channels can be registered to the given EventLoopGroup, or {@link #NIO} if the
+     * EventLoopGroup belongs to no known transport, e.g. because it wraps a NioEventLoopGroup
+     */
+    public static Transport of(EventLoopGroup group) {
+        for (Transport transport : values()) {
+            if (transport.isEventLoopGroup(group)) {
+                return transport;
+            }
+        }
+        return NIO;
+    }
+}
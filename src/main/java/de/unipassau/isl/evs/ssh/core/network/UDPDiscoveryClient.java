@@ -27,8 +27,10 @@
 package de.unipassau.isl.evs.ssh.core.network;
 
 import de.ncoder.typedmap.Key;
+import de.unipassau.isl.evs.ssh.core.CoreConfiguration;
 import de.unipassau.isl.evs.ssh.core.CoreConstants;
 import de.unipassau.isl.evs.ssh.core.container.AbstractComponent;
+import de.unipassau.isl.evs.ssh.core.keyvaluestore.SimpleKeyValueStore;
 import de.unipassau.isl.evs.ssh.core.naming.NamingManager;
 import de.unipassau.isl.evs.ssh.core.schedule.ExecutionServiceComponent;
 import io.netty.bootstrap.Bootstrap;
@@ -38,11 +40,12 @@ import io.netty.channel.ChannelHandlerAdapter;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.socket.DatagramPacket;
-import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.FutureListener;
 import io.netty.util.concurrent.ScheduledFuture;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,13 +53,35 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.security.GeneralSecurityException;
 import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_BLOCK_MILLIS;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_BURST_INTERVAL_MILLIS;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_BURST_PROBES;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_CACHE_TTL_MILLIS;
 import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_HOST;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_MAX_INTERVAL_MILLIS;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_MAX_PACKET_SIZE;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_MAX_STRING_LENGTH;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_MAX_TRACKED_SENDERS;
 import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_PAYLOAD_REQUEST;
 import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_PAYLOAD_RESPONSE;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_RESPONSE_BURST;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_RESPONSE_RATE;
 import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_SERVER_PORT;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.DISCOVERY_VERIFY_QUEUE_CAPACITY;
 
 /**
  * This component is responsible for sending UDP discovery packets and signalling the new address and port back to the
@@ -70,9 +95,10 @@ public class UDPDiscoveryClient extends AbstractComponent {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     /**
-     * The maximum number of seconds the broadcast waits to be sent again.
+     * Prefix of the keys in the {@link SimpleKeyValueStore} the last found address of a Master is stored at,
+     * followed by the ID of the Master.
      */
-    private static final long CLIENT_MILLIS_BETWEEN_BROADCASTS = TimeUnit.SECONDS.toMillis(2);
+    static final String PREF_CACHED_ADDRESS = UDPDiscoveryClient.class.getName() + ".CACHED_ADDRESS.";
 
     /**
      * The channel listening for incoming UDP packets.
@@ -91,6 +117,25 @@ public class UDPDiscoveryClient extends AbstractComponent {
      * The timestamp when discovery should stop, or {@code 0} if discovery should run indefinitely.
      */
     private long timeout = 0;
+    /**
+     * The number of discovery requests sent since discovery was started, used to slow down the requests.
+     */
+    private int probes = 0;
+    /**
+     * The state of the rate limit of every sender of responses, see {@link #tryAcquire(InetAddress)}.
+     */
+    private final ConcurrentMap<InetAddress, AtomicLong> senderBuckets = new ConcurrentHashMap<>();
+    private final Map<DropReason, AtomicLong> droppedCounts = new EnumMap<>(DropReason.class);
+    /**
+     * The single thread verifying the signatures of responses, created on first use.
+     */
+    private ExecutorService verifyExecutor;
+
+    {
+        for (DropReason reason : DropReason.values()) {
+            droppedCounts.put(reason, new AtomicLong());
+        }
+    }
 
     /**
      * Start discovery if it is not running yet and send the first discovery request.
@@ -106,18 +151,22 @@ public class UDPDiscoveryClient extends AbstractComponent {
         logger.info("startDiscovery, " + (isDiscoveryRunning ? "already" : "currently not") + " running with timeout " + timeout);
         if (!isDiscoveryRunning) {
             isDiscoveryRunning = true;
+            probes = 0;
 
             // Setup UDP Channel
             if (channel == null) {
+                final ExecutionServiceComponent executionService = requireComponent(ExecutionServiceComponent.KEY);
                 Bootstrap b = new Bootstrap()
-                        .channel(NioDatagramChannel.class)
-                        .group(requireComponent(ExecutionServiceComponent.KEY))
+                        .channel(executionService.getTransport().getDatagramChannelClass())
+                        .group(executionService)
                         .handler(new ResponseHandler())
                         .option(ChannelOption.SO_BROADCAST, true);
+                requireComponent(Client.KEY).getNetworkSettings().applyToDatagram(b, DISCOVERY_MAX_PACKET_SIZE);
                 channel = b.bind(0);
             }
 
             sendDiscoveryRequest();
+            probes++;
             scheduleDiscoveryRetry();
         }
     }
@@ -144,6 +193,7 @@ public class UDPDiscoveryClient extends AbstractComponent {
                     }
                     if (isDiscoveryRunning) {
                         sendDiscoveryRequest();
+                        probes++;
                         /* Mark this future as completed, so that the next discovery request will be scheduled.
                          * Otherwise retryFuture.isDone() would be false until this method terminates and the following
                          * recursive call wouldn't schedule the next execution. */
@@ -151,7 +201,7 @@ public class UDPDiscoveryClient extends AbstractComponent {
                         scheduleDiscoveryRetry();
                     }
                 }
-            }, CLIENT_MILLIS_BETWEEN_BROADCASTS, TimeUnit.MILLISECONDS);
+            }, getProbeDelayMillis(probes), TimeUnit.MILLISECONDS);
             retryFuture.addListener(new FutureListener<Object>() {
                 @Override
                 public void operationComplete(Future future) throws Exception {
@@ -168,6 +218,20 @@ public class UDPDiscoveryClient extends AbstractComponent {
         return retryFuture;
     }
 
+    /**
+     * The first {@link CoreConstants.NettyConstants#DISCOVERY_BURST_PROBES} requests are sent in a fast burst,
+     * afterwards the delay doubles with every request up to {@link CoreConstants.NettyConstants#DISCOVERY_MAX_INTERVAL_MILLIS}.
+     *
+     * @return the time to wait after the given number of sent requests before sending the next one
+     */
+    static long getProbeDelayMillis(int probes) {
+        if (probes < DISCOVERY_BURST_PROBES) {
+            return DISCOVERY_BURST_INTERVAL_MILLIS;
+        }
+        final int shift = Math.min(probes - DISCOVERY_BURST_PROBES + 1, 16);
+        return Math.min(DISCOVERY_MAX_INTERVAL_MILLIS, DISCOVERY_BURST_INTERVAL_MILLIS << shift);
+    }
+
     /**
      * Stop the discovery and cancel all pending discovery requests.
      */
@@ -212,42 +276,229 @@ public class UDPDiscoveryClient extends AbstractComponent {
             buffer.writeBoolean(false);
         }
 
-        final InetSocketAddress recipient = new InetSocketAddress(DISCOVERY_HOST, DISCOVERY_SERVER_PORT);
-        final DatagramPacket request = new DatagramPacket(buffer, recipient);
+        final DatagramPacket request = new DatagramPacket(buffer, getRecipient());
         return channel.channel().writeAndFlush(request);
     }
 
+    /**
+     * @return the configured multicast group or otherwise the limited broadcast address
+     */
+    private InetSocketAddress getRecipient() {
+        final CoreConfiguration config = getComponent(CoreConfiguration.KEY);
+        final String group = config != null ? config.getDiscoveryMulticastGroup() : null;
+        return new InetSocketAddress(group != null ? group : DISCOVERY_HOST, DISCOVERY_SERVER_PORT);
+    }
+
+    /**
+     * @return the address the current Master was last found at, if it was found within
+     * {@link CoreConstants.NettyConstants#DISCOVERY_CACHE_TTL_MILLIS}
+     */
+    @Nullable
+    public InetSocketAddress getCachedAddress() {
+        final NamingManager namingManager = requireComponent(NamingManager.KEY);
+        if (!namingManager.isMasterIDKnown()) {
+            return null;
+        }
+        final String value = requireComponent(SimpleKeyValueStore.KEY)
+                .getString(PREF_CACHED_ADDRESS + namingManager.getMasterID().getIDString());
+        if (value == null) {
+            return null;
+        }
+        // host|port|lastSeen, the host may contain colons if it is an IPv6 address
+        final String[] parts = value.split("\\|");
+        try {
+            if (parts.length != 3 || System.currentTimeMillis() - Long.parseLong(parts[2]) > DISCOVERY_CACHE_TTL_MILLIS) {
+                return null;
+            }
+            return InetSocketAddress.createUnresolved(parts[0], Integer.parseInt(parts[1]));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring invalid cached address " + value, e);
+            return null;
+        }
+    }
+
+    private void cacheAddress(InetSocketAddress address) {
+        final NamingManager namingManager = requireComponent(NamingManager.KEY);
+        if (namingManager.isMasterIDKnown()) {
+            requireComponent(SimpleKeyValueStore.KEY).putString(
+                    PREF_CACHED_ADDRESS + namingManager.getMasterID().getIDString(),
+                    address.getHostString() + "|" + address.getPort() + "|" + System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * The reasons for dropping a received UDP packet, see {@link #getDroppedCount(DropReason)}.
+     */
+    public enum DropReason {
+        /**
+         * The packet was received while discovery was not running.
+         */
+        NOT_RUNNING,
+        /**
+         * The packet is too large, truncated or contains invalid lengths.
+         */
+        MALFORMED,
+        /**
+         * The sender exceeded {@link CoreConstants.NettyConstants#DISCOVERY_RESPONSE_RATE} or recently sent a response
+         * with an invalid signature.
+         */
+        RATE_LIMITED,
+        /**
+         * Too many responses were waiting for their signature to be verified.
+         */
+        OVERLOADED,
+        /**
+         * The signature of the response could not be verified with the certificate of the Master.
+         */
+        INVALID_SIGNATURE
+    }
+
+    /**
+     * @return the number of received UDP packets that were dropped for the given reason
+     */
+    public long getDroppedCount(DropReason reason) {
+        return droppedCounts.get(reason).get();
+    }
+
+    private void dropped(DropReason reason, InetSocketAddress sender) {
+        droppedCounts.get(reason).incrementAndGet();
+        logger.debug("Dropping UDP packet from " + sender + ": " + reason);
+    }
+
+    /**
+     * Take a token from the bucket of the sender, using the same generic cell rate algorithm as the
+     * {@link de.unipassau.isl.evs.ssh.core.messaging.RateLimiter}. Senders whose responses had an invalid signature
+     * are blocked for {@link CoreConstants.NettyConstants#DISCOVERY_BLOCK_MILLIS}.
+     *
+     * @return {@code true} if the packet from the sender may be processed
+     */
+    private boolean tryAcquire(InetAddress sender) {
+        if (senderBuckets.size() > DISCOVERY_MAX_TRACKED_SENDERS) {
+            senderBuckets.clear(); // don't let spoofed senders fill the memory
+        }
+        AtomicLong bucket = senderBuckets.get(sender);
+        if (bucket == null) {
+            final AtomicLong created = new AtomicLong(System.nanoTime());
+            bucket = senderBuckets.putIfAbsent(sender, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        final long interval = TimeUnit.SECONDS.toNanos(1) / DISCOVERY_RESPONSE_RATE;
+        final long tolerance = interval * DISCOVERY_RESPONSE_BURST;
+        while (true) {
+            final long now = System.nanoTime();
+            final long arrival = bucket.get();
+            final long next = (arrival - now > 0 ? arrival : now) + interval;
+            if (next - now > tolerance) {
+                return false;
+            }
+            if (bucket.compareAndSet(arrival, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Block all further packets of the sender for {@link CoreConstants.NettyConstants#DISCOVERY_BLOCK_MILLIS}.
+     */
+    private void block(InetAddress sender) {
+        final AtomicLong bucket = senderBuckets.get(sender);
+        if (bucket != null) {
+            bucket.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DISCOVERY_BLOCK_MILLIS));
+        }
+    }
+
+    @NotNull
+    private synchronized ExecutorService getVerifyExecutor() {
+        if (verifyExecutor == null) {
+            verifyExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(DISCOVERY_VERIFY_QUEUE_CAPACITY),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(@NotNull Runnable r) {
+                            final Thread thread = new Thread(r, "UDPDiscoveryVerifier");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return verifyExecutor;
+    }
+
+    @Override
+    public void destroy() {
+        stopDiscovery();
+        synchronized (this) {
+            if (verifyExecutor != null) {
+                verifyExecutor.shutdownNow();
+                verifyExecutor = null;
+            }
+        }
+        super.destroy();
+    }
+
     /**
      * The ChannelHandler that receives and parses incoming UDP responses and forwards them to the Client
      * if they indicate a new master.
+     * Packets are filtered cheaply on the event loop by size, sender and type, while the signature is verified on a
+     * separate thread with a bounded queue, so that a device flooding the network with fake responses can neither
+     * block the event loop nor use up more than a single core.
      */
     private class ResponseHandler extends ChannelHandlerAdapter {
+        /**
+         * Only used by the verify thread, initialized for {@link #verifierCert}.
+         */
+        private Signature verifier;
+        private X509Certificate verifierCert;
+
         @Override
-        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        public void channelRead(final ChannelHandlerContext ctx, Object msg) throws Exception {
             try {
                 final DatagramPacket request = (DatagramPacket) msg;
+                final InetSocketAddress sender = request.sender();
                 final ByteBuf buffer = request.content();
+                if (buffer.readableBytes() > DISCOVERY_MAX_PACKET_SIZE) {
+                    dropped(DropReason.MALFORMED, sender);
+                    return;
+                }
 
                 final int dataStart = buffer.readerIndex();
                 final String messageType = readString(buffer);
                 if (DISCOVERY_PAYLOAD_RESPONSE.equals(messageType)) {
-                    String addressString = readString(buffer);
+                    if (!isDiscoveryRunning) {
+                        dropped(DropReason.NOT_RUNNING, sender);
+                        return;
+                    }
+                    if (!tryAcquire(sender.getAddress())) {
+                        dropped(DropReason.RATE_LIMITED, sender);
+                        return;
+                    }
+                    final String addressString = readString(buffer);
+                    if (addressString == null || buffer.readableBytes() < 4) {
+                        dropped(DropReason.MALFORMED, sender);
+                        return;
+                    }
                     // the address originally sent from the master is discarded, as using the address from which the
                     // message came works even if I'm in a different subnet
-                    final InetAddress address = request.sender().getAddress();
                     final int port = buffer.readInt();
-                    final InetSocketAddress socketAddress = new InetSocketAddress(address, port);
+                    if (port <= 0 || port > 0xFFFF) {
+                        dropped(DropReason.MALFORMED, sender);
+                        return;
+                    }
+                    final InetSocketAddress socketAddress = new InetSocketAddress(sender.getAddress(), port);
 
                     final int dataEnd = buffer.readerIndex();
-                    if (checkSignature(buffer, dataStart, dataEnd)) {
-                        // got a new address for the master!
-                        logger.info("UDP response received " + socketAddress);
-                        stopDiscovery();
-                        requireComponent(Client.KEY).onMasterFound(socketAddress);
-                    } else {
-                        logger.info("UDP response received " + socketAddress
-                                + ", but signature is invalid");
+                    final byte[] data = new byte[dataEnd - dataStart];
+                    buffer.getBytes(dataStart, data);
+                    final byte[] sign = readSign(buffer);
+                    if (sign == null) {
+                        dropped(DropReason.MALFORMED, sender);
+                        return;
                     }
+                    verify(ctx, sender, socketAddress, data, sign);
+                } else if (messageType == null) {
+                    dropped(DropReason.MALFORMED, sender);
                 } else if (!DISCOVERY_PAYLOAD_REQUEST.equals(messageType)) {
                     //discard own requests that are echoed by the router and requests sent by other clients and warn about all other packets
                     logger.debug("Discarding UDP packet with illegal message type: " + messageType);
@@ -257,30 +508,73 @@ public class UDPDiscoveryClient extends AbstractComponent {
             }
         }
 
-        private boolean checkSignature(ByteBuf buffer, int dataStart, int dataEnd) {
+        private void verify(final ChannelHandlerContext ctx, final InetSocketAddress sender,
+                            final InetSocketAddress socketAddress, final byte[] data, final byte[] sign) {
+            try {
+                getVerifyExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!checkSignature(data, sign)) {
+                            logger.info("UDP response received " + socketAddress + ", but signature is invalid");
+                            dropped(DropReason.INVALID_SIGNATURE, sender);
+                            block(sender.getAddress());
+                            return;
+                        }
+                        ctx.channel().eventLoop().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!isDiscoveryRunning) {
+                                    return; // another response was faster
+                                }
+                                // got a new address for the master!
+                                logger.info("UDP response received " + socketAddress);
+                                stopDiscovery();
+                                cacheAddress(socketAddress);
+                                requireComponent(Client.KEY).onMasterFound(socketAddress);
+                            }
+                        });
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                dropped(DropReason.OVERLOADED, sender);
+            }
+        }
+
+        private boolean checkSignature(byte[] data, byte[] sign) {
             try {
                 final NamingManager namingManager = requireComponent(NamingManager.KEY);
                 if (namingManager.isMasterKnown()) {
-                    Signature signature = Signature.getInstance("ECDSA");
-                    signature.initVerify(namingManager.getMasterCertificate());
-                    signature.update(buffer.nioBuffer(0, dataEnd - dataStart));
-                    final byte[] sign = readSign(buffer);
-                    return signature.verify(sign);
+                    final X509Certificate cert = namingManager.getMasterCertificate();
+                    if (verifier == null || !cert.equals(verifierCert)) {
+                        verifier = Signature.getInstance("ECDSA");
+                        verifier.initVerify(cert);
+                        verifierCert = cert;
+                    }
+                    // verify resets the Signature to the state after initVerify, so it can be reused
+                    verifier.update(data);
+                    return verifier.verify(sign);
                 } else {
                     return true; //trust for now until I received the master cert matching my Master's ID
                 }
             } catch (GeneralSecurityException e) {
                 logger.warn("Could not validate signature", e);
+                verifier = null;
                 return false;
             }
         }
 
         /**
-         * Read a string.
+         * Read a string of at most {@link CoreConstants.NettyConstants#DISCOVERY_MAX_STRING_LENGTH} bytes.
+         *
+         * @return the string or {@code null} if the length is invalid
          */
+        @Nullable
         private String readString(ByteBuf buffer) {
+            if (buffer.readableBytes() < 4) {
+                return null;
+            }
             final int length = buffer.readInt();
-            if (length < 0 || length > 0xFFFF) {
+            if (length < 0 || length > DISCOVERY_MAX_STRING_LENGTH || length > buffer.readableBytes()) {
                 return null;
             }
             byte[] value = new byte[length];
@@ -290,10 +584,16 @@ public class UDPDiscoveryClient extends AbstractComponent {
 
         /**
          * Read signature.
+         *
+         * @return the signature or {@code null} if the length is invalid
          */
+        @Nullable
         private byte[] readSign(ByteBuf buffer) {
+            if (buffer.readableBytes() < 4) {
+                return null;
+            }
             final int length = buffer.readInt();
-            if (length < 0) {
+            if (length <= 0 || length > buffer.readableBytes()) {
                 return null;
             }
             byte[] value = new byte[length];
@@ -0,0 +1,154 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network.handler;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * FlushConsolidator is part of the netty pipeline, directly after the head, and delays flushes so that all messages
+ * written within the same EventLoop tick, or within a configurable number of microseconds, are sent using a single
+ * flush and thereby a single syscall. A pending flush is executed immediately once
+ * {@link #MAX_CONSOLIDATED_FLUSHES} flushes were consolidated, the channel becomes unwritable or is closed,
+ * so that neither the latency nor the size of the outbound buffer grows unbounded.
+ * Messages whose latency is measured, like the pings of the {@link TimeoutHandler}, can skip the delay using
+ * {@link #flushPending(Channel)}.
+ */
+public class FlushConsolidator extends ChannelHandlerAdapter {
+    /**
+     * The maximum number of flushes that are consolidated before flushing immediately.
+     */
+    public static final int MAX_CONSOLIDATED_FLUSHES = 256;
+
+    private final long delayMicros;
+    private int pendingFlushes = 0;
+    private ChannelHandlerContext ctx;
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * @param delayMicros the time in microseconds a flush is delayed or {@code 0} to only consolidate the flushes
+     *                    issued until the EventLoop has executed all tasks currently pending
+     */
+    public FlushConsolidator(long delayMicros) {
+        this.delayMicros = delayMicros;
+    }
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            scheduledFlush = null;
+            if (pendingFlushes > 0) {
+                flushNow(ctx);
+            }
+        }
+    };
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+        super.handlerAdded(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        flushIfPending(ctx);
+        super.handlerRemoved(ctx);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (++pendingFlushes >= MAX_CONSOLIDATED_FLUSHES || !ctx.channel().isWritable()) {
+            flushNow(ctx);
+        } else if (pendingFlushes == 1) {
+            if (delayMicros > 0) {
+                scheduledFlush = ctx.executor().schedule(flushTask, delayMicros, TimeUnit.MICROSECONDS);
+            } else {
+                ctx.executor().execute(flushTask);
+            }
+        }
+    }
+
+    /**
+     * Flush once all messages read in one go have been handled, as their replies are probably written by now.
+     */
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        flushIfPending(ctx);
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (!ctx.channel().isWritable()) {
+            flushIfPending(ctx);
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfPending(ctx);
+        super.disconnect(ctx, promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfPending(ctx);
+        super.close(ctx, promise);
+    }
+
+    /**
+     * Immediately executes the delayed flush of the FlushConsolidator of the channel, if there is one.
+     * Must be called from the EventLoop of the channel.
+     */
+    public static void flushPending(Channel channel) {
+        final FlushConsolidator consolidator = channel.pipeline().get(FlushConsolidator.class);
+        if (consolidator != null && consolidator.ctx != null) {
+            consolidator.flushIfPending(consolidator.ctx);
+        }
+    }
+
+    private void flushIfPending(ChannelHandlerContext ctx) {
+        if (pendingFlushes > 0) {
+            flushNow(ctx);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        pendingFlushes = 0;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        ctx.flush();
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network.handler;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.unipassau.isl.evs.ssh.core.messaging.ConflationKey;
+import de.unipassau.isl.evs.ssh.core.messaging.Message;
+import de.unipassau.isl.evs.ssh.core.messaging.RoutingKey;
+import de.unipassau.isl.evs.ssh.core.messaging.RoutingKeys;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.PromiseNotifier;
+
+/**
+ * OutboundLaneHandler is part of the netty pipeline and holds outgoing {@link Message.AddressedMessage}s in one queue
+ * per {@link Lane}, only passing them on towards the socket while the channel is writable.
+ * This way, the outbound buffer of the channel never holds more than its high water mark and a control message,
+ * like {@link RoutingKeys#MASTER_DOOR_UNLATCH}, overtakes all bulk transfers, like camera pictures, that are still
+ * waiting in the lanes. Messages that are already in the outbound buffer are not reordered, so a control message
+ * has to wait for at most the frames that were written before the channel became unwritable.
+ * <p>
+ * Messages sent to one of the conflated RoutingKeys only carry the latest state of a Module, so a waiting message
+ * is replaced in place by a newer message with the same {@link ConflationKey}. The send future of the replaced message
+ * completes together with the one of the newer message.
+ * <p>
+ * To prevent starvation, a lower lane is served once it was passed over {@link #MAX_SKIPPED_WRITES} times in a row.
+ * All other outgoing packets, e.g. handshake packets and pings, pass without delay.
+ */
+public class OutboundLaneHandler extends ChannelHandlerAdapter {
+    /**
+     * The number of messages from higher lanes written in a row before a waiting message from a lower lane is written.
+     */
+    public static final int MAX_SKIPPED_WRITES = 16;
+
+    /**
+     * The default lanes for String RoutingKeys, all other RoutingKeys use {@link Lane#NORMAL}.
+     */
+    public static final Map<String, Lane> DEFAULT_LANES;
+
+    static {
+        final Map<String, Lane> lanes = new HashMap<>();
+        for (RoutingKey<?> key : Arrays.<RoutingKey<?>>asList(
+                RoutingKeys.MASTER_DOOR_UNLATCH, RoutingKeys.MASTER_DOOR_BLOCK, RoutingKeys.MASTER_DOOR_BELL_RING,
+                RoutingKeys.SLAVE_DOOR_UNLATCH, RoutingKeys.MASTER_LIGHT_SET, RoutingKeys.SLAVE_LIGHT_SET,
+                RoutingKeys.MASTER_PERMISSION_SET, RoutingKeys.MASTER_USER_SET_GROUP)) {
+            lanes.put(key.getKey(), Lane.CONTROL);
+            lanes.put(RoutingKey.getReplyKey(key.getKey()), Lane.CONTROL);
+        }
+        for (RoutingKey<?> key : Arrays.<RoutingKey<?>>asList(RoutingKeys.MASTER_CAMERA_GET, RoutingKeys.SLAVE_CAMERA_GET)) {
+            // the requests are small, but their replies contain the picture
+            lanes.put(RoutingKey.getReplyKey(key.getKey()), Lane.BULK);
+        }
+        for (RoutingKey<?> key : Arrays.<RoutingKey<?>>asList(
+                RoutingKeys.APP_CAMERA_BROADCAST, RoutingKeys.APP_USERINFO_UPDATE, RoutingKeys.GLOBAL_MODULES_UPDATE)) {
+            lanes.put(key.getKey(), Lane.BULK);
+        }
+        DEFAULT_LANES = Collections.unmodifiableMap(lanes);
+    }
+
+    private final Map<String, Lane> lanes;
+    private final Set<String> conflatedKeys;
+    private final Map<ConflationKey, PendingWrite> conflatable = new HashMap<>();
+    private final List<ArrayDeque<PendingWrite>> queues;
+    private final int[] skipped;
+    private int queued = 0;
+    /**
+     * The statistics are written on the EventLoop, but may be read from any thread
+     */
+    private final AtomicIntegerArray queuedCounts;
+    private final AtomicLong conflatedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * @param lanes         the lanes for String RoutingKeys, all other RoutingKeys use {@link Lane#NORMAL}
+     * @param conflatedKeys the String RoutingKeys whose waiting messages are replaced by newer ones
+     */
+    public OutboundLaneHandler(Map<String, Lane> lanes, Set<String> conflatedKeys) {
+        this.lanes = lanes;
+        this.conflatedKeys = conflatedKeys;
+        this.queues = new ArrayList<>(Lane.values().length);
+        for (int i = 0; i < Lane.values().length; i++) {
+            queues.add(new ArrayDeque<PendingWrite>());
+        }
+        this.skipped = new int[queues.size()];
+        this.queuedCounts = new AtomicIntegerArray(queues.size());
+    }
+
+    public Lane getLane(String routingKey) {
+        final Lane lane = lanes.get(routingKey);
+        return lane != null ? lane : Lane.NORMAL;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof Message.AddressedMessage) {
+            final Message.AddressedMessage amsg = (Message.AddressedMessage) msg;
+            ConflationKey key = null;
+            if (conflatedKeys.contains(amsg.getRoutingKey())) {
+                key = ConflationKey.forMessage(amsg);
+                final PendingWrite waiting = conflatable.get(key);
+                if (waiting != null) {
+                    waiting.replace(amsg, promise);
+                    conflatedCount.incrementAndGet();
+                    return;
+                }
+            }
+            final PendingWrite write = new PendingWrite(amsg, promise, key);
+            if (key != null) {
+                conflatable.put(key, write);
+            }
+            final int lane = getLane(amsg.getRoutingKey()).ordinal();
+            queues.get(lane).addLast(write);
+            queuedCounts.incrementAndGet(lane);
+            queued++;
+        } else {
+            super.write(ctx, msg, promise);
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        writePending(ctx);
+        super.flush(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable() && queued > 0) {
+            writePending(ctx);
+            ctx.flush();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        failPending(new ClosedChannelException());
+        super.close(ctx, promise);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        failPending(new ClosedChannelException());
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        // pass on all waiting messages, so that they aren't lost
+        for (PendingWrite write = poll(); write != null; write = poll()) {
+            ctx.write(write.message, write.promise);
+        }
+        ctx.flush();
+        super.handlerRemoved(ctx);
+    }
+
+    /**
+     * Write waiting messages, highest lane first, as long as the channel is writable.
+     */
+    private void writePending(ChannelHandlerContext ctx) {
+        while (queued > 0 && ctx.channel().isWritable()) {
+            final PendingWrite write = poll();
+            if (write.message.isExpired()) {
+                expiredCount.incrementAndGet();
+                write.promise.tryFailure(new TimeoutException("Timeout of message " + write.message.getSequenceNr()
+                        + " expired before it was written"));
+                continue;
+            }
+            ctx.write(write.message, write.promise);
+        }
+    }
+
+    /**
+     * @return the next message to write, from a lower lane if it was skipped too often or from the highest lane otherwise
+     */
+    private PendingWrite poll() {
+        if (queued == 0) {
+            return null;
+        }
+        int next = -1;
+        for (int i = queues.size() - 1; i >= 0; i--) {
+            if (!queues.get(i).isEmpty()) {
+                if (skipped[i] >= MAX_SKIPPED_WRITES) {
+                    next = i;
+                    break;
+                }
+                next = i;
+            }
+        }
+        for (int i = next + 1; i < queues.size(); i++) {
+            if (!queues.get(i).isEmpty()) {
+                skipped[i]++;
+            }
+        }
+        skipped[next] = 0;
+        queued--;
+        queuedCounts.decrementAndGet(next);
+        final PendingWrite write = queues.get(next).pollFirst();
+        if (write.conflationKey != null) {
+            conflatable.remove(write.conflationKey);
+        }
+        return write;
+    }
+
+    private void failPending(Throwable cause) {
+        for (PendingWrite write = poll(); write != null; write = poll()) {
+            write.promise.tryFailure(cause);
+        }
+    }
+
+    /**
+     * @return the number of messages waiting in the given lane
+     */
+    public int getQueuedCount(Lane lane) {
+        return queuedCounts.get(lane.ordinal());
+    }
+
+    /**
+     * @return the number of waiting messages that were replaced by a newer message
+     */
+    public long getConflatedCount() {
+        return conflatedCount.get();
+    }
+
+    /**
+     * @return the number of waiting messages that were dropped because their
+     * {@link Message#HEADER_TIMEOUT timeout} expired before they could be written
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * The outbound lanes, ordered from highest to lowest priority.
+     */
+    public enum Lane {
+        /**
+         * Control messages and interactive requests that should be sent as soon as possible.
+         */
+        CONTROL,
+        /**
+         * Messages of all RoutingKeys without explicitly configured lane.
+         */
+        NORMAL,
+        /**
+         * Large transfers that may be delayed in favour of the other lanes.
+         */
+        BULK
+    }
+
+    private static class PendingWrite {
+        private final ConflationKey conflationKey;
+        private Message.AddressedMessage message;
+        private ChannelPromise promise;
+
+        private PendingWrite(Message.AddressedMessage message, ChannelPromise promise, ConflationKey conflationKey) {
+            this.message = message;
+            this.promise = promise;
+            this.conflationKey = conflationKey;
+        }
+
+        /**
+         * Replace the waiting message by a newer one, completing the promise of the old message with the new one.
+         */
+        private void replace(Message.AddressedMessage message, ChannelPromise promise) {
+            promise.addListener(new PromiseNotifier<Void, ChannelFuture>(this.promise));
+            this.message = message;
+            this.promise = promise;
+        }
+    }
+}
@@ -27,56 +27,184 @@
 package de.unipassau.isl.evs.ssh.core.network.handler;
 
 
+import de.unipassau.isl.evs.ssh.core.network.RoundTripTimeEstimator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerAdapter;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.timeout.IdleState;
-import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.Attribute;
 import io.netty.util.AttributeKey;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.INITIAL_PING_TIMEOUT_MILLIS;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.MIN_PING_TIMEOUT_MILLIS;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.PING_RETRIES;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.READER_IDLE_TIME;
+import static de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants.WRITER_IDLE_TIME;
 
 /**
  * TimeoutHandler class is part of the netty pipeline. Handles timeouts by sending {@link PingMessage}.
+ * <p>
+ * Every received message proves that the connection is alive, so a ping is only sent once nothing was read for
+ * {@link de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants#WRITER_IDLE_TIME}. The peer answers with a
+ * {@link PongMessage} echoing the timestamp of the ping, which is used to estimate the round trip time of the
+ * connection. If nothing is read within the {@link RoundTripTimeEstimator#getTimeoutMillis() timeout} derived from
+ * it, the ping is repeated with a doubled timeout up to
+ * {@link de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants#PING_RETRIES} times before the connection is
+ * closed. While pings are not enabled, e.g. during the handshake, the connection is closed after
+ * {@link de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants#READER_IDLE_TIME}.
  *
  * @author Phil Werli
  */
 public class TimeoutHandler extends ChannelHandlerAdapter {
     private static final AttributeKey<Boolean> SEND_PINGS = AttributeKey.valueOf(TimeoutHandler.class, "SEND_PINGS");
+    private static final AttributeKey<RoundTripTimeEstimator> ROUND_TRIP_TIME =
+            AttributeKey.valueOf(TimeoutHandler.class, "ROUND_TRIP_TIME");
     private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final long keepAliveNanos;
+    private final long readerIdleNanos;
+    private final RoundTripTimeEstimator roundTripTime;
+    private ScheduledFuture<?> timeout;
+    private long lastReadNanos;
+    private long lastPingNanos;
+    private int unansweredPings = 0;
+
+    public TimeoutHandler() {
+        this(TimeUnit.SECONDS.toMillis(WRITER_IDLE_TIME), TimeUnit.SECONDS.toMillis(READER_IDLE_TIME));
+    }
 
     /**
-     * Handles received timeout event.
-     * Sends a {@link PingMessage}.
+     * @param keepAliveMillis  the time nothing must have been read before a ping is sent
+     * @param readerIdleMillis the time nothing must have been read before the connection is closed if pings are
+     *                         not enabled, also the upper bound of the time to wait for the answer to a ping
      */
+    public TimeoutHandler(long keepAliveMillis, long readerIdleMillis) {
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+        this.readerIdleNanos = TimeUnit.MILLISECONDS.toNanos(readerIdleMillis);
+        this.roundTripTime = new RoundTripTimeEstimator(MIN_PING_TIMEOUT_MILLIS,
+                Math.min(INITIAL_PING_TIMEOUT_MILLIS, readerIdleMillis), readerIdleMillis);
+    }
+
     @Override
-    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
-        if (evt instanceof IdleStateEvent) {
-            IdleStateEvent e = (IdleStateEvent) evt;
-            if (e.state() == IdleState.READER_IDLE) {
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        ctx.channel().attr(ROUND_TRIP_TIME).set(roundTripTime);
+        if (ctx.channel().isActive()) {
+            start(ctx);
+        }
+        super.handlerAdded(ctx);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        start(ctx);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        stop();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        stop();
+        ctx.channel().attr(ROUND_TRIP_TIME).remove();
+        super.handlerRemoved(ctx);
+    }
+
+    private void start(ChannelHandlerContext ctx) {
+        if (timeout == null) {
+            lastReadNanos = System.nanoTime();
+            schedule(ctx, keepAliveNanos);
+        }
+    }
+
+    private void stop() {
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+    }
+
+    private void schedule(final ChannelHandlerContext ctx, long delayNanos) {
+        timeout = ctx.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                check(ctx);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Checks whether the connection is still alive and sends a ping or closes it if it is not.
+     */
+    private void check(ChannelHandlerContext ctx) {
+        timeout = null;
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (unansweredPings > 0 && lastReadNanos - lastPingNanos < 0) {
+            // nothing was read since the last ping was sent
+            if (unansweredPings > PING_RETRIES) {
+                logger.debug("Connection timed out after " + unansweredPings + " unanswered pings, " + roundTripTime);
+                ctx.close();
+            } else {
+                ping(ctx, now);
+            }
+            return;
+        }
+        unansweredPings = 0;
+        final long idle = now - lastReadNanos;
+        if (!getPingEnabled(ctx.channel())) {
+            if (idle >= readerIdleNanos) {
                 logger.debug("Connection timed out");
                 ctx.close();
-            } else if (e.state() == IdleState.WRITER_IDLE) {
-                if (getPingEnabled(ctx.channel())) {
-                    ctx.writeAndFlush(new PingMessage());
-                }
+            } else {
+                schedule(ctx, readerIdleNanos - idle);
             }
+        } else if (idle >= keepAliveNanos) {
+            ping(ctx, now);
+        } else {
+            schedule(ctx, keepAliveNanos - idle);
         }
     }
 
+    private void ping(ChannelHandlerContext ctx, long now) {
+        lastPingNanos = now;
+        ctx.writeAndFlush(new PingMessage(now));
+        // a delayed flush would be counted as round trip time
+        FlushConsolidator.flushPending(ctx.channel());
+        // wait twice as long for every repeated ping
+        final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(roundTripTime.getTimeoutMillis()) << unansweredPings;
+        schedule(ctx, Math.min(timeoutNanos, readerIdleNanos));
+        unansweredPings++;
+    }
+
     /**
      * Calls {@link ChannelHandlerAdapter#channelRead(ChannelHandlerContext, Object)} when the sent message
      * is not an object of
-     * {@link de.unipassau.isl.evs.ssh.core.network.handler.TimeoutHandler.PingMessage PingMessage} class.
+     * {@link de.unipassau.isl.evs.ssh.core.network.handler.TimeoutHandler.PingMessage PingMessage} or
+     * {@link de.unipassau.isl.evs.ssh.core.network.handler.TimeoutHandler.PongMessage PongMessage} class.
+     * Pings are answered with a pong, pongs are used to sample the round trip time.
      */
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        lastReadNanos = System.nanoTime();
         if (msg instanceof PingMessage) {
-            // discard message
+            ctx.writeAndFlush(new PongMessage(((PingMessage) msg).timestamp));
+            FlushConsolidator.flushPending(ctx.channel());
+            ReferenceCountUtil.release(msg);
+        } else if (msg instanceof PongMessage) {
+            // the timestamp identifies the ping, so repeated pings still give exact samples
+            roundTripTime.addSample(lastReadNanos - ((PongMessage) msg).pingTimestamp);
             ReferenceCountUtil.release(msg);
         } else {
             // forward message
@@ -85,9 +213,35 @@ public class TimeoutHandler extends ChannelHandlerAdapter {
     }
 
     /**
-     * Empty class used for simple ping messages.
+     * Ping message carrying the time it was sent at, which is echoed by the {@link PongMessage}.
      */
     public static class PingMessage implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The value of {@link System#nanoTime()} of the sender when the ping was sent.
+         */
+        public final long timestamp;
+
+        public PingMessage(long timestamp) {
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * The answer to a {@link PingMessage}.
+     */
+    public static class PongMessage implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The {@link PingMessage#timestamp} of the answered ping.
+         */
+        public final long pingTimestamp;
+
+        public PongMessage(long pingTimestamp) {
+            this.pingTimestamp = pingTimestamp;
+        }
     }
 
     public static void setPingEnabled(Channel ch, boolean enabled) {
@@ -99,4 +253,12 @@ public class TimeoutHandler extends ChannelHandlerAdapter {
         attr.setIfAbsent(false);
         return attr.get();
     }
+
+    /**
+     * @return the round trip time estimated by the TimeoutHandler of the channel or {@code null} if it has none
+     */
+    @Nullable
+    public static RoundTripTimeEstimator getRoundTripTime(Channel ch) {
+        return ch.attr(ROUND_TRIP_TIME).get();
+    }
 }
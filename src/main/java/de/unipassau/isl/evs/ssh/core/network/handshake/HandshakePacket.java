@@ -28,9 +28,13 @@ package de.unipassau.isl.evs.ssh.core.network.handshake;
 
 
 import com.google.common.base.MoreObjects;
+import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 
@@ -44,7 +48,7 @@ public abstract class HandshakePacket implements Serializable {
     /**
      * Used by peers to check if they talk a compatible version of the handshake protocol
      */
-    public static final int PROTOCOL_VERSION = 3;
+    public static final int PROTOCOL_VERSION = 6;
 
     /**
      * Used for debugging purposes to easier identify HandshakePackets in network dumps
@@ -56,16 +60,147 @@ public abstract class HandshakePacket implements Serializable {
     /**
      * Initial HandshakePacket sent by Client and afterwards by Server containing general information about the device
      * and its Certificate.
+     * If the sender knows that the peer already stores its Certificate, it only sends its DeviceID and the hash of the
+     * Certificate, see {@link #compact(X509Certificate, boolean, X509Certificate)}. If the peer doesn't know a
+     * Certificate with that hash, it answers with a {@link CertificateRequest} and the full Hello is sent instead.
+     * <p>
+     * A Client reconnecting to its Master can present the {@link ServerAuthenticationResponse#sessionTicket session
+     * ticket} from its last handshake, see {@link #resume(X509Certificate, X509Certificate, byte[])}. If the Master
+     * accepts it, it answers with a {@link #resumed(X509Certificate, X509Certificate) resumed} Hello followed directly
+     * by the {@link ServerAuthenticationResponse}, skipping the CHAP. Otherwise the normal handshake continues.
      */
     public static class Hello extends HandshakePacket {
+        public static final String CERTIFICATE_HASH_ALG = "SHA-256";
+
         public final int protocolVersion = PROTOCOL_VERSION;
         public final SerializableBuildConfig buildConfig = SerializableBuildConfig.getInstance();
+        /**
+         * The Certificate of the sender or {@code null} if only its hash is sent
+         */
+        @Nullable
         public final X509Certificate certificate;
+        public final DeviceID deviceID;
+        public final byte[] certificateHash;
+        /**
+         * The hash of the Certificate of the peer known by the sender, so that the peer can answer with a compact Hello,
+         * or {@code null} if the sender doesn't know the peer
+         */
+        @Nullable
+        public final byte[] peerCertificateHash;
         public final boolean isMaster;
+        /**
+         * The session ticket presented by a Client to resume its last session or {@code null}
+         */
+        @Nullable
+        public final byte[] sessionTicket;
+        /**
+         * Whether the Master accepted the session ticket of the Client and skips the CHAP
+         */
+        public final boolean resumed;
 
+        /**
+         * @throws IllegalArgumentException if the Certificate can't be encoded
+         * @see #full(X509Certificate, boolean, X509Certificate)
+         */
         public Hello(X509Certificate certificate, boolean isMaster) {
-            this.certificate = certificate;
+            this(certificate, true, isMaster, encodedCertificateHash(certificate), null, null, false);
+        }
+
+        private Hello(X509Certificate certificate, boolean includeCertificate, boolean isMaster,
+                      @Nullable X509Certificate peerCertificate, @Nullable byte[] sessionTicket, boolean resumed)
+                throws CertificateEncodingException {
+            this(certificate, includeCertificate, isMaster, getCertificateHash(certificate),
+                    peerCertificate != null ? getCertificateHash(peerCertificate) : null, sessionTicket, resumed);
+        }
+
+        private Hello(X509Certificate certificate, boolean includeCertificate, boolean isMaster, byte[] certificateHash,
+                      @Nullable byte[] peerCertificateHash, @Nullable byte[] sessionTicket, boolean resumed) {
+            this.certificate = includeCertificate ? certificate : null;
+            this.deviceID = DeviceID.fromCertificate(certificate);
+            this.certificateHash = certificateHash;
+            this.peerCertificateHash = peerCertificateHash;
             this.isMaster = isMaster;
+            this.sessionTicket = sessionTicket;
+            this.resumed = resumed;
+        }
+
+        /**
+         * @param certificate     the own Certificate
+         * @param isMaster        {@code true} if this device is the Master
+         * @param peerCertificate the stored Certificate of the peer or {@code null} if the peer is not known
+         * @return a Hello with the full Certificate, also announcing the known Certificate of the peer
+         */
+        public static Hello full(X509Certificate certificate, boolean isMaster, @Nullable X509Certificate peerCertificate)
+                throws CertificateEncodingException {
+            return new Hello(certificate, true, isMaster, peerCertificate, null, false);
+        }
+
+        /**
+         * @param certificate     the own Certificate, of which only the hash is sent
+         * @param isMaster        {@code true} if this device is the Master
+         * @param peerCertificate the stored Certificate of the peer
+         * @return a Hello that only contains the DeviceID and the hash of the Certificate
+         */
+        public static Hello compact(X509Certificate certificate, boolean isMaster, X509Certificate peerCertificate)
+                throws CertificateEncodingException {
+            return new Hello(certificate, false, isMaster, peerCertificate, null, false);
+        }
+
+        /**
+         * @param certificate       the own Certificate of the Client, of which only the hash is sent
+         * @param masterCertificate the stored Certificate of the Master
+         * @param sessionTicket     the session ticket issued by the Master in the last handshake
+         * @return a compact Client Hello asking the Master to resume the last session
+         */
+        public static Hello resume(X509Certificate certificate, X509Certificate masterCertificate, byte[] sessionTicket)
+                throws CertificateEncodingException {
+            return new Hello(certificate, false, false, masterCertificate, sessionTicket, false);
+        }
+
+        /**
+         * @param certificate       the own Certificate of the Master, of which only the hash is sent
+         * @param clientCertificate the stored Certificate of the Client
+         * @return a compact Server Hello telling the Client that its session ticket was accepted
+         */
+        public static Hello resumed(X509Certificate certificate, X509Certificate clientCertificate)
+                throws CertificateEncodingException {
+            return new Hello(certificate, false, true, clientCertificate, null, true);
+        }
+
+        /**
+         * @return {@code true} if the given Certificate has the hash contained in this Hello
+         */
+        public boolean matches(@Nullable X509Certificate certificate) throws CertificateEncodingException {
+            return certificate != null && MessageDigest.isEqual(certificateHash, getCertificateHash(certificate));
+        }
+
+        /**
+         * @return {@code true} if the given Certificate has the hash the sender of this Hello expects from its peer
+         */
+        public boolean knowsPeer(X509Certificate certificate) throws CertificateEncodingException {
+            return peerCertificateHash != null && MessageDigest.isEqual(peerCertificateHash, getCertificateHash(certificate));
+        }
+
+        /**
+         * @return the {@value #CERTIFICATE_HASH_ALG} hash of the DER encoding of the Certificate
+         */
+        public static byte[] getCertificateHash(X509Certificate certificate) throws CertificateEncodingException {
+            try {
+                return MessageDigest.getInstance(CERTIFICATE_HASH_ALG).digest(certificate.getEncoded());
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(CERTIFICATE_HASH_ALG + " is not available", e);
+            }
+        }
+
+        /**
+         * Like {@link #getCertificateHash(X509Certificate)}, but throws an unchecked IllegalArgumentException
+         */
+        private static byte[] encodedCertificateHash(X509Certificate certificate) {
+            try {
+                return getCertificateHash(certificate);
+            } catch (CertificateEncodingException e) {
+                throw new IllegalArgumentException("Can't encode certificate " + certificate, e);
+            }
         }
 
         @Override
@@ -74,7 +209,12 @@ public abstract class HandshakePacket implements Serializable {
                     .add("protocolVersion", protocolVersion)
                     .add("buildConfig", buildConfig)
                     .add("certificate", certificate)
+                    .add("deviceID", deviceID)
+                    .add("certificateHash", Arrays.toString(certificateHash))
+                    .add("peerCertificateHash", Arrays.toString(peerCertificateHash))
                     .add("isMaster", isMaster)
+                    .add("sessionTicket", sessionTicket != null ? sessionTicket.length + " bytes" : null)
+                    .add("resumed", resumed)
                     .toString();
         }
 
@@ -98,18 +238,31 @@ public abstract class HandshakePacket implements Serializable {
                 version_name = (String) clazz.getField("VERSION_NAME").get(null);
             }
 
+            /**
+             * @return the BuildConfig of this process, which is only looked up once
+             */
             @Nullable
             public static SerializableBuildConfig getInstance() {
-                for (String s : new String[]{"app", "slave", "master", "core"}) {
-                    try {
-                        // TODO Read this from a BuildConfig like in Android
-                        final String n = "standalone";
-                        final Class<?> clazz = Class.forName(n);
-                        return new SerializableBuildConfig(clazz);
-                    } catch (ReflectiveOperationException ignore) {
-                    }
+                return InstanceHolder.INSTANCE;
+            }
+
+            @Nullable
+            private static SerializableBuildConfig load() {
+                try {
+                    // TODO Read this from a BuildConfig like in Android
+                    final String n = "standalone";
+                    final Class<?> clazz = Class.forName(n);
+                    return new SerializableBuildConfig(clazz);
+                } catch (ReflectiveOperationException ignore) {
+                    return null;
                 }
-                return null;
+            }
+
+            /**
+             * Loads the instance on first use.
+             */
+            private static class InstanceHolder {
+                private static final SerializableBuildConfig INSTANCE = load();
             }
 
             @Override
@@ -126,6 +279,17 @@ public abstract class HandshakePacket implements Serializable {
         }
     }
 
+    /**
+     * Sent in answer to a compact {@link Hello} if the receiver doesn't know the Certificate with the indicated hash.
+     * The peer then sends the full {@link Hello}.
+     */
+    public static class CertificateRequest extends HandshakePacket {
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this).toString();
+        }
+    }
+
     /**
      * Challenge-Response packets used to proof that the peer owns the private key belonging to the certificate it
      * indicated in the {@link de.unipassau.isl.evs.ssh.core.network.handshake.HandshakePacket.Hello} packet.
@@ -209,18 +373,40 @@ public abstract class HandshakePacket implements Serializable {
         @Nullable
         public final byte[] passiveRegistrationToken;
         public final boolean isConnectionLocal;
+        /**
+         * A single-use ticket the Client can present in its next {@link Hello} to resume the session,
+         * see {@link SessionTicketIssuer}, or {@code null}
+         */
+        @Nullable
+        public final byte[] sessionTicket;
+        /**
+         * The time in milliseconds the {@link #sessionTicket} is valid
+         */
+        public final long sessionTicketLifetime;
 
         public ServerAuthenticationResponse(boolean isAuthenticated, @Nullable String message, @Nullable byte[] passiveRegistrationToken, boolean isConnectionLocal) {
+            this(isAuthenticated, message, passiveRegistrationToken, isConnectionLocal, null, 0);
+        }
+
+        public ServerAuthenticationResponse(boolean isAuthenticated, @Nullable String message, @Nullable byte[] passiveRegistrationToken, boolean isConnectionLocal,
+                                            @Nullable byte[] sessionTicket, long sessionTicketLifetime) {
             this.isAuthenticated = isAuthenticated;
             this.message = message;
             this.passiveRegistrationToken = passiveRegistrationToken;
             this.isConnectionLocal = isConnectionLocal;
+            this.sessionTicket = sessionTicket;
+            this.sessionTicketLifetime = sessionTicketLifetime;
         }
 
         public static ServerAuthenticationResponse authenticated(@Nullable String message, @Nullable byte[] passiveRegistrationToken, boolean isConnectionLocal) {
             return new ServerAuthenticationResponse(true, message, passiveRegistrationToken, isConnectionLocal);
         }
 
+        public static ServerAuthenticationResponse authenticated(@Nullable String message, @Nullable byte[] passiveRegistrationToken, boolean isConnectionLocal,
+                                                                 byte[] sessionTicket, long sessionTicketLifetime) {
+            return new ServerAuthenticationResponse(true, message, passiveRegistrationToken, isConnectionLocal, sessionTicket, sessionTicketLifetime);
+        }
+
         public static ServerAuthenticationResponse unauthenticated(@Nullable String message) {
             return new ServerAuthenticationResponse(false, message, null, false);
         }
@@ -232,6 +418,8 @@ public abstract class HandshakePacket implements Serializable {
                     .add("message", message)
                     .add("passiveRegistrationToken", Arrays.toString(passiveRegistrationToken))
                     .add("isConnectionLocal", isConnectionLocal)
+                    .add("sessionTicket", sessionTicket != null ? sessionTicket.length + " bytes" : null)
+                    .add("sessionTicketLifetime", sessionTicketLifetime)
                     .toString();
         }
     }
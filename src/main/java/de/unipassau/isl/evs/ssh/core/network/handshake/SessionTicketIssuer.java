@@ -0,0 +1,201 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network.handshake;
+
+import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and redeems the session tickets used by the Master to let known Clients resume their session without the
+ * CHAP, see {@link HandshakePacket.Hello#resume}.
+ * A ticket contains the DeviceID of the Client, the hash of its Certificate, its expiry time and a random ID,
+ * encrypted and authenticated with AES-GCM using a key that never leaves this process, so tickets are invalidated by
+ * restarting the Master.
+ * Every ticket can only be redeemed once: the IDs of redeemed tickets are kept until they expire and if too many
+ * unexpired tickets were redeemed, all further tickets are rejected until some expire.
+ * A rejected ticket only means that the Client has to perform the full handshake.
+ * <p>
+ * The ticket is sent in the cleartext Hello, so it can be captured. It is only accepted together with the DeviceID and
+ * Certificate hash it was issued for, and a resumed session still uses the Encrypter, Decrypter and SignatureChecker
+ * for the stored Certificate of that Client. A device replaying a captured ticket therefore can neither read nor sign
+ * any message of the resumed session without the private key of the Client; it can only use up the ticket, so that the
+ * Client falls back to the full handshake.
+ */
+public class SessionTicketIssuer {
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int KEY_LENGTH = 16;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final int TICKET_ID_LENGTH = 16;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKey key;
+    private final long lifetimeMillis;
+    private final int replayCacheSize;
+    /**
+     * The IDs of redeemed tickets mapped to their expiry time
+     */
+    private final Map<ByteBuffer, Long> redeemed = new ConcurrentHashMap<>();
+
+    /**
+     * @param lifetimeMillis  the time in milliseconds an issued ticket is valid
+     * @param replayCacheSize the maximum number of unexpired redeemed tickets that are remembered
+     */
+    public SessionTicketIssuer(long lifetimeMillis, int replayCacheSize) {
+        if (lifetimeMillis <= 0 || replayCacheSize <= 0) {
+            throw new IllegalArgumentException("Invalid lifetime " + lifetimeMillis + "ms or replay cache size " + replayCacheSize);
+        }
+        this.lifetimeMillis = lifetimeMillis;
+        this.replayCacheSize = replayCacheSize;
+        final byte[] keyBytes = new byte[KEY_LENGTH];
+        random.nextBytes(keyBytes);
+        this.key = new SecretKeySpec(keyBytes, "AES");
+    }
+
+    /**
+     * @return the time in milliseconds an issued ticket is valid
+     */
+    public long getLifetimeMillis() {
+        return lifetimeMillis;
+    }
+
+    /**
+     * Issue a new ticket for the authenticated Client.
+     *
+     * @param clientID        the DeviceID of the Client
+     * @param certificateHash the {@link HandshakePacket.Hello#getCertificateHash(java.security.cert.X509Certificate)
+     *                        hash} of the Certificate of the Client
+     * @return the encrypted ticket
+     */
+    public byte[] issue(DeviceID clientID, byte[] certificateHash) throws GeneralSecurityException {
+        final byte[] id = clientID.getIDBytes();
+        final ByteBuffer plain = ByteBuffer.allocate(4 + id.length + 4 + certificateHash.length + 8 + TICKET_ID_LENGTH);
+        plain.putInt(id.length).put(id);
+        plain.putInt(certificateHash.length).put(certificateHash);
+        plain.putLong(System.currentTimeMillis() + lifetimeMillis);
+        final byte[] ticketID = new byte[TICKET_ID_LENGTH];
+        random.nextBytes(ticketID);
+        plain.put(ticketID);
+
+        final byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        final Cipher cipher = Cipher.getInstance(CIPHER, "SC");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        final byte[] encrypted = cipher.doFinal(plain.array());
+
+        return ByteBuffer.allocate(IV_LENGTH + encrypted.length).put(iv).put(encrypted).array();
+    }
+
+    /**
+     * Check and invalidate a ticket presented by a Client.
+     *
+     * @param ticket          the ticket from the {@link HandshakePacket.Hello} of the Client
+     * @param clientID        the DeviceID the Client claimed in its Hello
+     * @param certificateHash the Certificate hash the Client sent in its Hello
+     * @return {@code true} if the ticket was issued to the Client with this Certificate by this issuer, is not expired
+     * and was not redeemed before
+     */
+    public boolean redeem(@Nullable byte[] ticket, DeviceID clientID, byte[] certificateHash) {
+        if (ticket == null || ticket.length <= IV_LENGTH) {
+            return false;
+        }
+        final ByteBuffer plain;
+        try {
+            final Cipher cipher = Cipher.getInstance(CIPHER, "SC");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, ticket, 0, IV_LENGTH));
+            plain = ByteBuffer.wrap(cipher.doFinal(ticket, IV_LENGTH, ticket.length - IV_LENGTH));
+        } catch (GeneralSecurityException e) {
+            logger.debug("Rejecting invalid session ticket from " + clientID + ": " + e.getMessage());
+            return false;
+        }
+
+        final int idLength = plain.getInt();
+        if (idLength != DeviceID.ID_LENGTH || plain.remaining() < idLength + 4) {
+            return false;
+        }
+        final byte[] id = new byte[idLength];
+        plain.get(id);
+        final int hashLength = plain.getInt();
+        if (hashLength < 0 || plain.remaining() != hashLength + 8 + TICKET_ID_LENGTH) {
+            return false;
+        }
+        final byte[] ticketCertificateHash = new byte[hashLength];
+        plain.get(ticketCertificateHash);
+        final long expiry = plain.getLong();
+        final byte[] ticketID = new byte[TICKET_ID_LENGTH];
+        plain.get(ticketID);
+
+        final long now = System.currentTimeMillis();
+        if (!clientID.equals(new DeviceID(id))) {
+            logger.warn("Rejecting session ticket of " + new DeviceID(id) + " presented by " + clientID);
+            return false;
+        } else if (!MessageDigest.isEqual(ticketCertificateHash, certificateHash)) {
+            logger.warn("Rejecting session ticket of " + clientID + " presented with another Certificate");
+            return false;
+        } else if (expiry < now) {
+            logger.debug("Rejecting expired session ticket from " + clientID);
+            return false;
+        }
+
+        if (redeemed.size() >= replayCacheSize) {
+            purgeExpired(now);
+            if (redeemed.size() >= replayCacheSize) {
+                logger.warn("Too many session tickets redeemed, rejecting ticket from " + clientID);
+                return false;
+            }
+        }
+        if (redeemed.put(ByteBuffer.wrap(ticketID), expiry) != null) {
+            logger.warn("Rejecting replayed session ticket from " + clientID);
+            return false;
+        }
+        return true;
+    }
+
+    private void purgeExpired(long now) {
+        final Iterator<Long> it = redeemed.values().iterator();
+        while (it.hasNext()) {
+            if (it.next() < now) {
+                it.remove();
+            }
+        }
+    }
+}
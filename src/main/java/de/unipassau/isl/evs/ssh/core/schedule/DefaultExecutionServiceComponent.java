@@ -26,12 +26,15 @@
 
 package de.unipassau.isl.evs.ssh.core.schedule;
 
+import de.unipassau.isl.evs.ssh.core.CoreConfiguration;
+import de.unipassau.isl.evs.ssh.core.CoreConstants.NettyConstants;
+import de.unipassau.isl.evs.ssh.core.network.Transport;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.util.concurrent.DefaultExecutorServiceFactory;
 
 /**
- * An ExecutionServiceComponent which uses the default EventLoopGroup configuration provided by Netty.
+ * An ExecutionServiceComponent which uses the default EventLoopGroup configuration provided by Netty,
+ * with the native epoll transport if it is available and enabled in the {@link CoreConfiguration}.
  *
  * @author Christoph Fraedrich
  */
@@ -44,6 +47,9 @@ public class DefaultExecutionServiceComponent extends ExecutionServiceComponent
 
     @Override
     protected EventLoopGroup createEventLoopGroup() {
-        return new NioEventLoopGroup(0, new DefaultExecutorServiceFactory(name));
+        final CoreConfiguration config = getComponent(CoreConfiguration.KEY);
+        final boolean preferNative = config != null
+                ? config.isNativeTransportEnabled() : NettyConstants.DEFAULT_NATIVE_TRANSPORT;
+        return Transport.select(preferNative).newEventLoopGroup(0, new DefaultExecutorServiceFactory(name));
     }
 }
@@ -38,6 +38,7 @@ import java.util.concurrent.TimeoutException;
 import de.ncoder.typedmap.Key;
 import de.unipassau.isl.evs.ssh.core.container.AbstractComponent;
 import de.unipassau.isl.evs.ssh.core.container.Container;
+import de.unipassau.isl.evs.ssh.core.network.Transport;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelPromise;
@@ -59,6 +60,7 @@ import org.jetbrains.annotations.Nullable;
 public abstract class ExecutionServiceComponent extends AbstractComponent implements EventLoopGroup {
     public static final Key<ExecutionServiceComponent> KEY = new Key<>(ExecutionServiceComponent.class);
     private EventLoopGroup eventLoopGroup;
+    private Transport transport;
 
     protected abstract EventLoopGroup createEventLoopGroup();
 
@@ -66,6 +68,7 @@ public abstract class ExecutionServiceComponent extends AbstractComponent implem
     public void init(Container container) {
         super.init(container);
         eventLoopGroup = createEventLoopGroup();
+        transport = Transport.of(eventLoopGroup);
     }
 
     @Override
@@ -74,6 +77,14 @@ public abstract class ExecutionServiceComponent extends AbstractComponent implem
         super.destroy();
     }
 
+    /**
+     * @return the transport of the EventLoopGroup, whose Channel types must be used for all Channels registered to
+     * this ExecutionServiceComponent
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
     // UTILS////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
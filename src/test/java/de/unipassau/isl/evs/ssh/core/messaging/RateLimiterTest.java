@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.messaging;
+
+import java.util.Collections;
+import java.util.Map;
+
+import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+    private static final DeviceID DEVICE_A = deviceID(1);
+    private static final DeviceID DEVICE_B = deviceID(2);
+    private static final Map<String, RateLimiter.Limit> NO_LIMITS = Collections.emptyMap();
+
+    private static DeviceID deviceID(int n) {
+        final byte[] bytes = new byte[DeviceID.ID_LENGTH];
+        bytes[0] = (byte) n;
+        return new DeviceID(bytes);
+    }
+
+    @Test
+    public void testBurst() {
+        final RateLimiter limiter = new RateLimiter(new RateLimiter.Limit(1, 5), NO_LIMITS, RateLimiter.Action.DROP);
+        for (int i = 0; i < 5; i++) {
+            assertTrue("message " + i + " of the burst", limiter.tryAcquire(DEVICE_A, "/key"));
+        }
+        assertFalse(limiter.tryAcquire(DEVICE_A, "/key"));
+        assertEquals(1, limiter.getLimitedCount("/key"));
+    }
+
+    @Test
+    public void testRefill() throws InterruptedException {
+        final RateLimiter limiter = new RateLimiter(new RateLimiter.Limit(100, 1), NO_LIMITS, RateLimiter.Action.DROP);
+        assertTrue(limiter.tryAcquire(DEVICE_A, "/key"));
+        assertFalse(limiter.tryAcquire(DEVICE_A, "/key"));
+        Thread.sleep(50);
+        assertTrue(limiter.tryAcquire(DEVICE_A, "/key"));
+    }
+
+    @Test
+    public void testBucketsPerDeviceAndKey() {
+        final RateLimiter limiter = new RateLimiter(new RateLimiter.Limit(1, 1), NO_LIMITS, RateLimiter.Action.DROP);
+        assertTrue(limiter.tryAcquire(DEVICE_A, "/key"));
+        assertFalse(limiter.tryAcquire(DEVICE_A, "/key"));
+        assertTrue(limiter.tryAcquire(DEVICE_A, "/other"));
+        assertTrue(limiter.tryAcquire(DEVICE_B, "/key"));
+        assertEquals(3, limiter.getBucketCount());
+    }
+
+    @Test
+    public void testUnlimitedKey() {
+        final Map<String, RateLimiter.Limit> limits = Collections.singletonMap("/free", null);
+        final RateLimiter limiter = new RateLimiter(new RateLimiter.Limit(1, 1), limits, RateLimiter.Action.DROP);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire(DEVICE_A, "/free"));
+        }
+        assertEquals(0, limiter.getBucketCount());
+    }
+
+    @Test
+    public void testMaxBuckets() {
+        final RateLimiter limiter = new RateLimiter(new RateLimiter.Limit(1, 1), NO_LIMITS, RateLimiter.Action.DROP, 2);
+        assertTrue(limiter.tryAcquire(DEVICE_A, "/1"));
+        assertTrue(limiter.tryAcquire(DEVICE_A, "/2"));
+        // both buckets are still in use, so no new bucket can be created
+        assertFalse(limiter.tryAcquire(DEVICE_A, "/3"));
+        assertEquals(2, limiter.getBucketCount());
+
+        limiter.reset(DEVICE_A);
+        assertEquals(0, limiter.getBucketCount());
+        assertTrue(limiter.tryAcquire(DEVICE_A, "/3"));
+    }
+
+    @Test
+    public void testIdleBucketsArePurged() throws InterruptedException {
+        final RateLimiter limiter = new RateLimiter(new RateLimiter.Limit(1000, 1), NO_LIMITS, RateLimiter.Action.DROP, 2);
+        assertTrue(limiter.tryAcquire(DEVICE_A, "/1"));
+        assertTrue(limiter.tryAcquire(DEVICE_A, "/2"));
+        Thread.sleep(20);
+        assertTrue(limiter.tryAcquire(DEVICE_A, "/3"));
+        assertEquals(1, limiter.getBucketCount());
+    }
+}
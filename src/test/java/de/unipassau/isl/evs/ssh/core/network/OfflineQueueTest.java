@@ -0,0 +1,196 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.unipassau.isl.evs.ssh.core.messaging.Message;
+import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
+import de.unipassau.isl.evs.ssh.core.schedule.ExecutionServiceComponent;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OfflineQueueTest {
+    private static final long TTL = 60 * 1000;
+    private static final Map<String, Long> NO_TTLS = Collections.emptyMap();
+    private static final Set<String> NO_CONFLATED_KEYS = Collections.emptySet();
+    private static final DeviceID SENDER = deviceID(1);
+    private static final DeviceID RECEIVER = deviceID(2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static DeviceID deviceID(int n) {
+        final byte[] bytes = new byte[DeviceID.ID_LENGTH];
+        bytes[0] = (byte) n;
+        return new DeviceID(bytes);
+    }
+
+    /**
+     * Message#setDestination is package-private, so the AddressedMessages are created reflectively.
+     */
+    private static Message.AddressedMessage addressed(String routingKey) {
+        try {
+            final Method setDestination = Message.class.getDeclaredMethod("setDestination",
+                    DeviceID.class, DeviceID.class, String.class);
+            setDestination.setAccessible(true);
+            return (Message.AddressedMessage) setDestination.invoke(new Message(), SENDER, RECEIVER, routingKey);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Promise<Void> newPromise() {
+        return new DefaultPromise<>(ImmediateEventExecutor.INSTANCE);
+    }
+
+    private static List<String> routingKeys(List<OfflineQueue.Entry> entries) {
+        final List<String> keys = new ArrayList<>();
+        for (OfflineQueue.Entry entry : entries) {
+            keys.add(entry.message.getRoutingKey());
+        }
+        return keys;
+    }
+
+    private static Promise<Void> add(OfflineQueue queue, String routingKey) {
+        final Message.AddressedMessage message = addressed(routingKey);
+        final Promise<Void> promise = newPromise();
+        queue.add(message, promise);
+        return promise;
+    }
+
+    @Test
+    public void testOrder() {
+        final OfflineQueue queue = new OfflineQueue(10, TTL, NO_TTLS, NO_CONFLATED_KEYS, null);
+        add(queue, "/a");
+        add(queue, "/b");
+        add(queue, "/c");
+        assertEquals(3, queue.size());
+        assertEquals(Arrays.asList("/a", "/b", "/c"), routingKeys(queue.drain()));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testCapacity() {
+        final OfflineQueue queue = new OfflineQueue(2, TTL, NO_TTLS, NO_CONFLATED_KEYS, null);
+        final Promise<Void> eldest = add(queue, "/a");
+        add(queue, "/b");
+        add(queue, "/c");
+        assertFalse(eldest.isSuccess());
+        assertTrue(eldest.isDone());
+        assertEquals(Arrays.asList("/b", "/c"), routingKeys(queue.drain()));
+    }
+
+    @Test
+    public void testTTL() throws InterruptedException {
+        final OfflineQueue queue = new OfflineQueue(10, TTL, Collections.singletonMap("/short", 1L),
+                NO_CONFLATED_KEYS, null);
+        final Promise<Void> expired = add(queue, "/short");
+        add(queue, "/long");
+        Thread.sleep(20);
+        assertEquals(Collections.singletonList("/long"), routingKeys(queue.drain()));
+        assertTrue(expired.isDone());
+        assertFalse(expired.isSuccess());
+    }
+
+    @Test
+    public void testNotQueuedWithoutTTL() {
+        final OfflineQueue queue = new OfflineQueue(10, 0, NO_TTLS, NO_CONFLATED_KEYS, null);
+        final Promise<Void> promise = add(queue, "/a");
+        assertTrue(promise.isDone());
+        assertFalse(promise.isSuccess());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testRequeueFirst() {
+        final OfflineQueue queue = new OfflineQueue(10, TTL, NO_TTLS, NO_CONFLATED_KEYS, null);
+        add(queue, "/a");
+        add(queue, "/b");
+        final List<OfflineQueue.Entry> drained = queue.drain();
+        add(queue, "/c");
+        queue.requeueFirst(drained);
+        assertEquals(Arrays.asList("/a", "/b", "/c"), routingKeys(queue.drain()));
+    }
+
+    @Test
+    public void testJournal() throws Exception {
+        final File journal = new File(folder.getRoot(), "offline_queue");
+        final OfflineQueue queue = new OfflineQueue(10, TTL, NO_TTLS, NO_CONFLATED_KEYS, journal);
+        add(queue, "/a");
+        add(queue, "/b");
+        add(queue, "/c");
+        queue.requeueFirst(queue.drain().subList(1, 3));
+        queue.closeJournal();
+
+        final OfflineQueue restarted = new OfflineQueue(10, TTL, NO_TTLS, NO_CONFLATED_KEYS, journal);
+        restarted.load(new ImmediateExecutionService());
+        assertEquals(Arrays.asList("/b", "/c"), routingKeys(restarted.drain()));
+        restarted.closeJournal();
+
+        final OfflineQueue drained = new OfflineQueue(10, TTL, NO_TTLS, NO_CONFLATED_KEYS, journal);
+        drained.load(new ImmediateExecutionService());
+        assertTrue(drained.isEmpty());
+        drained.closeJournal();
+    }
+
+    /**
+     * Only provides the Promises for the messages loaded from the journal.
+     */
+    private static class ImmediateExecutionService extends ExecutionServiceComponent {
+        @Override
+        protected EventLoopGroup createEventLoopGroup() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <V> Promise<V> newPromise() {
+            return new DefaultPromise<>(ImmediateEventExecutor.INSTANCE);
+        }
+
+        @Override
+        public void close() {
+            // no EventLoopGroup was created
+        }
+    }
+}
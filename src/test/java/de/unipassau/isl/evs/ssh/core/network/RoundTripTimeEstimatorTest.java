@@ -0,0 +1,94 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RoundTripTimeEstimatorTest {
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void testInitialTimeout() {
+        final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(10, 1000, 60000);
+        assertEquals(1000, estimator.getTimeoutMillis());
+        assertEquals(-1, estimator.getSmoothedMillis());
+        assertEquals(-1, estimator.getVariationMillis());
+    }
+
+    @Test
+    public void testFirstSample() {
+        final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(10, 1000, 60000);
+        estimator.addSample(millis(100));
+        // SRTT <- R, RTTVAR <- R/2
+        assertEquals(100, estimator.getSmoothedMillis());
+        assertEquals(50, estimator.getVariationMillis());
+        assertEquals(100 + 4 * 50, estimator.getTimeoutMillis());
+    }
+
+    @Test
+    public void testSubsequentSample() {
+        final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(10, 1000, 60000);
+        estimator.addSample(millis(100));
+        estimator.addSample(millis(200));
+        // RTTVAR <- 3/4 * 50 + 1/4 * |100 - 200| = 62.5, SRTT <- 7/8 * 100 + 1/8 * 200 = 112.5
+        assertEquals(112, estimator.getSmoothedMillis());
+        assertEquals(62, estimator.getVariationMillis());
+        assertEquals(362, estimator.getTimeoutMillis());
+        assertEquals(200, estimator.getLastSampleMillis());
+        assertEquals(2, estimator.getSamples());
+    }
+
+    @Test
+    public void testBounds() {
+        final RoundTripTimeEstimator low = new RoundTripTimeEstimator(10, 1000, 60000);
+        low.addSample(millis(1));
+        assertEquals(10, low.getTimeoutMillis());
+
+        final RoundTripTimeEstimator high = new RoundTripTimeEstimator(10, 1000, 60000);
+        high.addSample(millis(100000));
+        assertEquals(60000, high.getTimeoutMillis());
+    }
+
+    @Test
+    public void testNegativeSampleIgnored() {
+        final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(10, 1000, 60000);
+        estimator.addSample(-1);
+        assertEquals(0, estimator.getSamples());
+        assertEquals(1000, estimator.getTimeoutMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new RoundTripTimeEstimator(100, 10, 1000);
+    }
+}
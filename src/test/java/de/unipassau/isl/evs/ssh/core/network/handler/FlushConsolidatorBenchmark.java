@@ -0,0 +1,170 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network.handler;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.serialization.ClassResolvers;
+import io.netty.handler.codec.serialization.ObjectDecoder;
+import io.netty.handler.codec.serialization.ObjectEncoder;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Loopback benchmark for the {@link FlushConsolidator}, run with {@code main}.
+ * A handler sends bursts of small messages over a local TCP connection and the number of flushes reaching the head
+ * of the pipeline, each of which causes at least one write syscall, and the throughput are reported for
+ * <ul>
+ * <li>{@code writeAndFlush} per message without FlushConsolidator (the behaviour before it was added),</li>
+ * <li>{@code writeAndFlush} per message with FlushConsolidator and</li>
+ * <li>{@code write} per message and a single {@code flush} per burst, as used by {@code sendMessages}.</li>
+ * </ul>
+ */
+public class FlushConsolidatorBenchmark {
+    private static final int BURSTS = 2000;
+    private static final int BURST_SIZE = 32;
+    private static final int ROUNDS = 5;
+
+    private enum Mode {
+        FLUSH_EACH, CONSOLIDATED, BATCH
+    }
+
+    public static void main(String[] args) throws Exception {
+        final EventLoopGroup group = new NioEventLoopGroup(2);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                for (Mode mode : Mode.values()) {
+                    final Result result = run(group, mode);
+                    // the first rounds only warm up the JIT
+                    if (round >= 2) {
+                        System.out.printf("%-13s %7d msgs %7d flushes %10.0f msgs/s%n",
+                                mode, result.messages, result.flushes, result.messages / result.seconds);
+                    }
+                }
+            }
+        } finally {
+            group.shutdownGracefully().sync();
+        }
+    }
+
+    private static Result run(EventLoopGroup group, final Mode mode) throws Exception {
+        final int messages = BURSTS * BURST_SIZE;
+        final CountDownLatch received = new CountDownLatch(messages);
+        final AtomicLong flushes = new AtomicLong();
+
+        final Channel server = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) throws Exception {
+                        ch.pipeline().addLast(new ObjectDecoder(ClassResolvers.cacheDisabled(null)));
+                        ch.pipeline().addLast(new ChannelHandlerAdapter() {
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                                ReferenceCountUtil.release(msg);
+                                received.countDown();
+                            }
+                        });
+                    }
+                })
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+        final Channel client = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) throws Exception {
+                        ch.pipeline().addLast(new ChannelHandlerAdapter() {
+                            @Override
+                            public void flush(ChannelHandlerContext ctx) throws Exception {
+                                flushes.incrementAndGet();
+                                super.flush(ctx);
+                            }
+                        });
+                        if (mode == Mode.CONSOLIDATED) {
+                            ch.pipeline().addLast(new FlushConsolidator(0));
+                        }
+                        ch.pipeline().addLast(new ObjectEncoder());
+                    }
+                })
+                .connect(server.localAddress()).sync().channel();
+
+        final long start = System.nanoTime();
+        for (int burst = 0; burst < BURSTS; burst++) {
+            client.eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < BURST_SIZE; i++) {
+                        final String message = "light state update " + i;
+                        if (mode == Mode.BATCH) {
+                            client.write(message);
+                        } else {
+                            client.writeAndFlush(message);
+                        }
+                    }
+                    if (mode == Mode.BATCH) {
+                        client.flush();
+                    }
+                }
+            });
+        }
+        if (!received.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Timed out, " + received.getCount() + " messages missing");
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        client.close().sync();
+        server.close().sync();
+        return new Result(messages, flushes.get(), seconds);
+    }
+
+    private static class Result {
+        private final int messages;
+        private final long flushes;
+        private final double seconds;
+
+        private Result(int messages, long flushes, double seconds) {
+            this.messages = messages;
+            this.flushes = flushes;
+            this.seconds = seconds;
+        }
+    }
+}
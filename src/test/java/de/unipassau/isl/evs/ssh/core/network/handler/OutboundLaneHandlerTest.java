@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network.handler;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.unipassau.isl.evs.ssh.core.messaging.Message;
+import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static de.unipassau.isl.evs.ssh.core.network.handler.OutboundLaneHandler.Lane;
+import static de.unipassau.isl.evs.ssh.core.network.handler.OutboundLaneHandler.MAX_SKIPPED_WRITES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundLaneHandlerTest {
+    private static final String CONTROL = "/control";
+    private static final String BULK = "/bulk";
+    private static final DeviceID SENDER = deviceID(1);
+    private static final DeviceID RECEIVER = deviceID(2);
+
+    private static DeviceID deviceID(int n) {
+        final byte[] bytes = new byte[DeviceID.ID_LENGTH];
+        bytes[0] = (byte) n;
+        return new DeviceID(bytes);
+    }
+
+    private static Message.AddressedMessage addressed(String routingKey) {
+        return addressed(new Message(), routingKey);
+    }
+
+    /**
+     * Message#setDestination is package-private, so the AddressedMessages are created reflectively.
+     */
+    private static Message.AddressedMessage addressed(Message message, String routingKey) {
+        try {
+            final Method setDestination = Message.class.getDeclaredMethod("setDestination",
+                    DeviceID.class, DeviceID.class, String.class);
+            setDestination.setAccessible(true);
+            return (Message.AddressedMessage) setDestination.invoke(message, SENDER, RECEIVER, routingKey);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static EmbeddedChannel newChannel() {
+        final Map<String, Lane> lanes = new HashMap<>();
+        lanes.put(CONTROL, Lane.CONTROL);
+        lanes.put(BULK, Lane.BULK);
+        return new EmbeddedChannel(new OutboundLaneHandler(lanes, Collections.<String>emptySet()));
+    }
+
+    private static List<String> readRoutingKeys(EmbeddedChannel channel) {
+        final List<String> keys = new ArrayList<>();
+        for (Object msg = channel.readOutbound(); msg != null; msg = channel.readOutbound()) {
+            keys.add(((Message.AddressedMessage) msg).getRoutingKey());
+        }
+        return keys;
+    }
+
+    @Test
+    public void testHigherLaneFirst() {
+        final EmbeddedChannel channel = newChannel();
+        channel.write(addressed(BULK));
+        channel.write(addressed("/normal"));
+        channel.write(addressed(CONTROL));
+        channel.flush();
+        assertEquals(Arrays.asList(CONTROL, "/normal", BULK), readRoutingKeys(channel));
+    }
+
+    @Test
+    public void testStarvationLimit() {
+        final EmbeddedChannel channel = newChannel();
+        final int controlCount = 3 * MAX_SKIPPED_WRITES;
+        for (int i = 0; i < 3; i++) {
+            channel.write(addressed(BULK));
+        }
+        for (int i = 0; i < controlCount; i++) {
+            channel.write(addressed(CONTROL));
+        }
+        channel.flush();
+
+        final List<String> written = readRoutingKeys(channel);
+        assertEquals(controlCount + 3, written.size());
+        // a bulk message is written after every MAX_SKIPPED_WRITES control messages
+        for (int i = 0; i < written.size(); i++) {
+            final String expected = i % (MAX_SKIPPED_WRITES + 1) == MAX_SKIPPED_WRITES ? BULK : CONTROL;
+            assertEquals("message " + i, expected, written.get(i));
+        }
+    }
+
+    @Test
+    public void testExpiredNotWritten() throws InterruptedException {
+        final EmbeddedChannel channel = newChannel();
+        final ChannelFuture expired = channel.write(addressed(new Message().setTimeout(1), BULK));
+        Thread.sleep(20);
+        channel.flush();
+        assertTrue(readRoutingKeys(channel).isEmpty());
+        assertTrue(expired.isDone());
+        assertFalse(expired.isSuccess());
+        assertEquals(1, ((OutboundLaneHandler) channel.pipeline().first()).getExpiredCount());
+    }
+}
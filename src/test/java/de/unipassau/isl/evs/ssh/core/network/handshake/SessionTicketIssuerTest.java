@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016.
+ * Bucher Andreas, Fink Simon Dominik, Fraedrich Christoph, Popp Wolfgang,
+ * Sell Leon, Werli Philemon
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unipassau.isl.evs.ssh.core.network.handshake;
+
+import java.security.Security;
+
+import de.unipassau.isl.evs.ssh.core.naming.DeviceID;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.spongycastle.jce.provider.BouncyCastleProvider;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SessionTicketIssuerTest {
+    private static final DeviceID CLIENT = deviceID(1);
+    private static final DeviceID OTHER_CLIENT = deviceID(2);
+    private static final byte[] CERTIFICATE_HASH = certificateHash(1);
+
+    private static DeviceID deviceID(int n) {
+        final byte[] bytes = new byte[DeviceID.ID_LENGTH];
+        bytes[0] = (byte) n;
+        return new DeviceID(bytes);
+    }
+
+    private static byte[] certificateHash(int n) {
+        final byte[] hash = new byte[32];
+        hash[0] = (byte) n;
+        return hash;
+    }
+
+    @BeforeClass
+    public static void addProvider() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void testRedeem() throws Exception {
+        final SessionTicketIssuer issuer = new SessionTicketIssuer(60000, 16);
+        assertTrue(issuer.redeem(issuer.issue(CLIENT, CERTIFICATE_HASH), CLIENT, CERTIFICATE_HASH));
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        final SessionTicketIssuer issuer = new SessionTicketIssuer(60000, 16);
+        final byte[] ticket = issuer.issue(CLIENT, CERTIFICATE_HASH);
+        assertTrue(issuer.redeem(ticket, CLIENT, CERTIFICATE_HASH));
+        assertFalse(issuer.redeem(ticket, CLIENT, CERTIFICATE_HASH));
+    }
+
+    @Test
+    public void testWrongDevice() throws Exception {
+        final SessionTicketIssuer issuer = new SessionTicketIssuer(60000, 16);
+        assertFalse(issuer.redeem(issuer.issue(CLIENT, CERTIFICATE_HASH), OTHER_CLIENT, CERTIFICATE_HASH));
+    }
+
+    @Test
+    public void testOtherCertificate() throws Exception {
+        final SessionTicketIssuer issuer = new SessionTicketIssuer(60000, 16);
+        final byte[] ticket = issuer.issue(CLIENT, CERTIFICATE_HASH);
+        assertFalse(issuer.redeem(ticket, CLIENT, certificateHash(2)));
+        assertTrue(issuer.redeem(ticket, CLIENT, CERTIFICATE_HASH));
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        final SessionTicketIssuer issuer = new SessionTicketIssuer(1, 16);
+        final byte[] ticket = issuer.issue(CLIENT, CERTIFICATE_HASH);
+        Thread.sleep(20);
+        assertFalse(issuer.redeem(ticket, CLIENT, CERTIFICATE_HASH));
+    }
+
+    @Test
+    public void testTampered() throws Exception {
+        final SessionTicketIssuer issuer = new SessionTicketIssuer(60000, 16);
+        final byte[] ticket = issuer.issue(CLIENT, CERTIFICATE_HASH);
+        ticket[ticket.length / 2] ^= 1;
+        assertFalse(issuer.redeem(ticket, CLIENT, CERTIFICATE_HASH));
+        assertFalse(issuer.redeem(null, CLIENT, CERTIFICATE_HASH));
+        assertFalse(issuer.redeem(new byte[4], CLIENT, CERTIFICATE_HASH));
+    }
+
+    @Test
+    public void testOtherIssuer() throws Exception {
+        final SessionTicketIssuer issuer = new SessionTicketIssuer(60000, 16);
+        final SessionTicketIssuer restarted = new SessionTicketIssuer(60000, 16);
+        assertFalse(restarted.redeem(issuer.issue(CLIENT, CERTIFICATE_HASH), CLIENT, CERTIFICATE_HASH));
+    }
+
+    @Test
+    public void testReplayCacheFull() throws Exception {
+        final SessionTicketIssuer issuer = new SessionTicketIssuer(60000, 1);
+        final byte[] first = issuer.issue(CLIENT, CERTIFICATE_HASH);
+        final byte[] second = issuer.issue(CLIENT, CERTIFICATE_HASH);
+        assertTrue(issuer.redeem(first, CLIENT, CERTIFICATE_HASH));
+        // the first ticket has not expired yet, so the second one can't be remembered and is rejected
+        assertFalse(issuer.redeem(second, CLIENT, CERTIFICATE_HASH));
+    }
+}